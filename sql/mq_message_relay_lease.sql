@@ -0,0 +1,4 @@
+-- 补偿任务认领消息的租约列，SELECT ... FOR UPDATE SKIP LOCKED认领后写入租约到期时间，租约到期前其他节点不会重复认领
+-- 升级到按租约认领的版本前执行一次；未执行时应用启动失败（MQSendTaskServiceImpl.init）
+-- 已有的行为null，表示没有被认领
+alter table mq_message add RELAY_LEASE_UNTIL TIMESTAMP;
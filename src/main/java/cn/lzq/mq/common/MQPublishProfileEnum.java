@@ -0,0 +1,14 @@
+package cn.lzq.mq.common;
+
+/**
+ * 发送模板的配置类型，同一交换机同一类型共用一个RabbitTemplate
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public enum MQPublishProfileEnum {
+
+    CONFIRM,  // 需要确认回调（事务消息）
+    SIMPLE,   // 不关心确认结果
+    RETRY,    // 需要确认回调，发送失败按指数退避重试（补偿任务）
+}
@@ -3,14 +3,18 @@ package cn.lzq.mq.controller;
 import cn.lzq.mq.common.MQExchange;
 import cn.lzq.mq.common.MQQueue;
 import cn.lzq.mq.common.MQRoutingKey;
+import cn.lzq.mq.service.ConsumerRegistry;
+import cn.lzq.mq.service.DeadLetterService;
 import cn.lzq.mq.service.MessageConsumer;
 import cn.lzq.mq.service.MessageProcess;
 import cn.lzq.mq.service.MessageProducer;
 import cn.lzq.mq.util.RandomStringUtil;
+import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.servlet.http.HttpServletRequest;
@@ -30,7 +34,13 @@ public class MQController {
 
     @Autowired
     @Qualifier("jsonMessageProcessImpl")
-    private MessageProcess messageProcess;
+    private MessageProcess<?> messageProcess;
+
+    @Autowired
+    private DeadLetterService deadLetterService;
+
+    @Autowired
+    private ConsumerRegistry consumerRegistry;
 
     @RequestMapping("/consume")
     public String consume(HttpServletRequest request) {
@@ -46,4 +56,66 @@ public class MQController {
         messageProducer.send(MQExchange.LZQ_CRM, MQRoutingKey.LZQ_CRM_ORDER_CREATE, jsonObject.toString());
         return "{\"result\":\"0\", \"msg\":\"" + jsonObject + "\"}";
     }
+
+    /**
+     * 重放死信队列中的消息
+     *
+     * @param queue 业务队列
+     * @param max   最多重放条数，不传表示重放开始时死信队列中的全部消息
+     * @return
+     * @throws Exception
+     */
+    @RequestMapping("/deadLetter/replay")
+    public String replayDeadLetter(@RequestParam("queue") String queue,
+                                   @RequestParam(value = "max", defaultValue = "0") long max) throws Exception {
+        try {
+            long replayed = deadLetterService.replay(queue, max);
+            return "{\"result\":\"0\", \"msg\":\"重放" + replayed + "条消息！\"}";
+        } catch (IllegalStateException e) {
+            return "{\"result\":\"1\", \"msg\":\"" + e.getMessage() + "\"}";
+        }
+    }
+
+    @RequestMapping("/consumers")
+    public String consumers() {
+        return JSON.toJSONString(consumerRegistry.describe());
+    }
+
+    @RequestMapping("/consumer/resize")
+    public String resizeConsumer(@RequestParam("queue") String queue, @RequestParam("consumers") int consumers) {
+        try {
+            consumerRegistry.resize(queue, consumers);
+            return "{\"result\":\"0\", \"msg\":\"消费者数量调整为" + consumers + "！\"}";
+        } catch (IllegalStateException e) {
+            return "{\"result\":\"1\", \"msg\":\"" + e.getMessage() + "\"}";
+        }
+    }
+
+    @RequestMapping("/consumer/prefetch")
+    public String prefetchConsumer(@RequestParam("queue") String queue, @RequestParam("prefetch") int prefetch) {
+        try {
+            consumerRegistry.setPrefetch(queue, prefetch);
+            return "{\"result\":\"0\", \"msg\":\"预取数调整为" + prefetch + "！\"}";
+        } catch (IllegalStateException e) {
+            return "{\"result\":\"1\", \"msg\":\"" + e.getMessage() + "\"}";
+        }
+    }
+
+    @RequestMapping("/consumer/pause")
+    public String pauseConsumer(@RequestParam("queue") String queue) {
+        consumerRegistry.pause(queue);
+        return "{\"result\":\"0\", \"msg\":\"消费者暂停！\"}";
+    }
+
+    @RequestMapping("/consumer/resume")
+    public String resumeConsumer(@RequestParam("queue") String queue) {
+        consumerRegistry.resume(queue);
+        return "{\"result\":\"0\", \"msg\":\"消费者恢复！\"}";
+    }
+
+    @RequestMapping("/consumer/stop")
+    public String stopConsumer(@RequestParam("queue") String queue) {
+        consumerRegistry.stop(queue);
+        return "{\"result\":\"0\", \"msg\":\"消费者停止！\"}";
+    }
 }
@@ -0,0 +1,1143 @@
+package cn.lzq.mq.dao;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisClusterException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.JedisClusterCRC16;
+import redis.clients.util.SafeEncoder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * redis集群模式的MQRedisDao，mq.redis.mode=cluster时代替MQRedisDaoImpl
+ * 1. 按key的slot把命令发给负责该slot的主节点，收到MOVED/ASK时重定向，连接失败时刷新slot分布后重试
+ * 2. 只读命令（getString、existKey、hget、zrangeByScore等）发给从节点，从节点不可用时改用主节点；
+ * 从节点的数据有复制延迟，需要读到刚写入的值时关闭mq.redis.cluster.readFromReplicas
+ * 3. 多key命令（mget、del、unlink、批量setnx）按slot分组，每组一次网络往返；
+ * 需要放在一起的key用相同的hash tag，例如去重key为"{队列名}_消息id"，同一队列的key位于同一个slot
+ * 4. eval和executePipelined中的所有key必须位于同一个slot
+ * 5. scan、keys、delByPattern、flashAll依次访问每个主节点
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Repository
+@ConditionalOnProperty(name = "mq.redis.mode", havingValue = "cluster")
+public class MQRedisClusterDaoImpl implements MQRedisDao {
+    private static final Logger LOG = Logger.getLogger(MQRedisClusterDaoImpl.class);
+
+    private static final String OK = "OK";
+
+    private static final String NX = "NX";
+
+    private static final String EX = "EX";
+
+    /**
+     * UNLINK不可用时（redis 4.0以下）改用DEL
+     */
+    private static final byte[] UNLINK_SCRIPT = SafeEncoder.encode(
+            "local n = redis.pcall('UNLINK', unpack(KEYS)) "
+                    + "if type(n) == 'table' and n.err then return redis.call('DEL', unpack(KEYS)) end "
+                    + "return n");
+
+    @Autowired
+    private RedisValueCodec redisValueCodec;
+
+    @Autowired
+    private RedisMetrics redisMetrics;
+
+    /**
+     * 集群节点，逗号分隔的host:port，任意几个节点即可，其他节点由CLUSTER SLOTS发现
+     */
+    @Value("${mq.redis.cluster.nodes}")
+    private String nodes;
+
+    @Value("${mq.redis.cluster.password:}")
+    private String password;
+
+    /**
+     * 连接和读取超时，毫秒
+     */
+    @Value("${mq.redis.cluster.timeoutMs:2000}")
+    private int timeoutMs;
+
+    /**
+     * 每个节点的最大连接数
+     */
+    @Value("${mq.redis.cluster.maxTotal:64}")
+    private int maxTotal;
+
+    /**
+     * 重定向和连接失败时的最大尝试次数
+     */
+    @Value("${mq.redis.cluster.maxAttempts:5}")
+    private int maxAttempts;
+
+    /**
+     * 只读命令是否发给从节点
+     */
+    @Value("${mq.redis.cluster.readFromReplicas:true}")
+    private boolean readFromReplicas;
+
+    /**
+     * 定时刷新slot分布的间隔，毫秒
+     */
+    @Value("${mq.redis.cluster.topologyRefreshMs:30000}")
+    private long topologyRefreshMs;
+
+    /**
+     * SCAN每次遍历的数量
+     */
+    @Value("${mq.redis.scanCount:1000}")
+    private int scanCount;
+
+    /**
+     * 每条UNLINK命令删除的key数量
+     */
+    @Value("${mq.redis.unlinkBatchSize:200}")
+    private int unlinkBatchSize;
+
+    private RedisClusterTopology topology;
+
+    /**
+     * 已发送READONLY的从节点连接，连接被连接池销毁后自动移除
+     */
+    private final Set<Jedis> readonlyConnections = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<Jedis, Boolean>()));
+
+    @PostConstruct
+    public void init() {
+        GenericObjectPoolConfig poolConfig = new GenericObjectPoolConfig();
+        poolConfig.setMaxTotal(maxTotal);
+        poolConfig.setMaxIdle(maxTotal);
+        topology = new RedisClusterTopology(nodes, poolConfig, timeoutMs, password, topologyRefreshMs, redisMetrics);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        topology.close();
+    }
+
+    /**
+     * 在一个连接上执行的命令
+     */
+    private interface ClusterCommand<T> {
+
+        T execute(Jedis jedis);
+    }
+
+    /**
+     * 在slot所在的节点上执行命令，记录耗时
+     *
+     * @param name     监控指标中的名称
+     * @param slot
+     * @param readOnly 只读命令，优先发给从节点
+     * @param attempts 主节点上的最大尝试次数，命令不能重复执行时为1
+     * @param command
+     * @return
+     */
+    private <T> T execute(String name, int slot, boolean readOnly, int attempts, ClusterCommand<T> command) {
+        long startNanos = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = route(slot, readOnly, attempts, command);
+            failed = false;
+            return result;
+        } finally {
+            redisMetrics.record(name, startNanos, failed);
+        }
+    }
+
+    /**
+     * 在slot所在的节点上执行命令，处理重定向和重试
+     *
+     * @param slot
+     * @param readOnly 只读命令，优先发给从节点
+     * @param attempts 主节点上的最大尝试次数，命令不能重复执行时为1
+     * @param command
+     * @return
+     */
+    private <T> T route(int slot, boolean readOnly, int attempts, ClusterCommand<T> command) {
+        if (readOnly && readFromReplicas) {
+            JedisPool replica = topology.replica(slot);
+            if (replica != null) {
+                Jedis jedis = null;
+                boolean isBroken = false;
+                try {
+                    jedis = borrow(replica);
+                    if (!readonlyConnections.contains(jedis)) {
+                        jedis.readonly();
+                        readonlyConnections.add(jedis);
+                    }
+                    return command.execute(jedis);
+                } catch (JedisRedirectionException e) {
+                    // 从节点已不负责该slot，或重连后丢失了READONLY
+                    readonlyConnections.remove(jedis);
+                    topology.refreshAsync();
+                } catch (JedisConnectionException e) {
+                    isBroken = true;
+                    topology.refreshAsync();
+                } finally {
+                    release(jedis, isBroken);
+                }
+            }
+        }
+
+        HostAndPort askNode = null;
+        for (int attempt = 1; ; attempt++) {
+            JedisPool pool = askNode == null ? topology.master(slot) : topology.pool(askNode);
+            if (pool == null) {
+                topology.refresh();
+                pool = topology.master(slot);
+                if (pool == null) {
+                    throw new JedisClusterException("no redis cluster node serves slot " + slot);
+                }
+            }
+            Jedis jedis = null;
+            boolean isBroken = false;
+            try {
+                jedis = borrow(pool);
+                if (askNode != null) {
+                    jedis.asking();
+                }
+                return command.execute(jedis);
+            } catch (JedisMovedDataException e) {
+                topology.moved(e.getSlot(), e.getTargetNode());
+                askNode = null;
+                if (attempt >= attempts) {
+                    throw e;
+                }
+            } catch (JedisAskDataException e) {
+                // slot迁移中，只有这一次命令发给目标节点
+                askNode = e.getTargetNode();
+                if (attempt >= attempts) {
+                    throw e;
+                }
+            } catch (JedisConnectionException e) {
+                isBroken = true;
+                askNode = null;
+                if (attempt >= attempts) {
+                    topology.refreshAsync();
+                    throw e;
+                }
+                topology.refresh();
+            } finally {
+                release(jedis, isBroken);
+            }
+        }
+    }
+
+    /**
+     * 在key的slot上执行命令，失败时记录日志并返回failed
+     */
+    private <T> T call(String name, String key, boolean readOnly, T failed, ClusterCommand<T> command) {
+        try {
+            return execute(name, JedisClusterCRC16.getSlot(key), readOnly, maxAttempts, command);
+        } catch (Exception e) {
+            LOG.error(e.getLocalizedMessage(), e);
+        }
+        return failed;
+    }
+
+    /**
+     * 按slot分组
+     *
+     * @param keys
+     * @return slot -> 该slot的key在keys中的下标
+     */
+    private Map<Integer, List<Integer>> groupBySlot(List<String> keys) {
+        Map<Integer, List<Integer>> bySlot = new LinkedHashMap<Integer, List<Integer>>();
+        for (int i = 0; i < keys.size(); i++) {
+            Integer slot = JedisClusterCRC16.getSlot(keys.get(i));
+            List<Integer> indexes = bySlot.get(slot);
+            if (indexes == null) {
+                indexes = new ArrayList<Integer>();
+                bySlot.put(slot, indexes);
+            }
+            indexes.add(i);
+        }
+        return bySlot;
+    }
+
+    private static String[] select(List<String> keys, List<Integer> indexes) {
+        String[] selected = new String[indexes.size()];
+        for (int i = 0; i < selected.length; i++) {
+            selected[i] = keys.get(indexes.get(i));
+        }
+        return selected;
+    }
+
+    /**
+     * 从连接池借用连接，记录等待时间
+     */
+    private Jedis borrow(JedisPool pool) {
+        long startNanos = System.nanoTime();
+        boolean failed = true;
+        try {
+            Jedis jedis = pool.getResource();
+            failed = false;
+            return jedis;
+        } finally {
+            redisMetrics.recordBorrow(startNanos, failed);
+        }
+    }
+
+    /**
+     * 根据key获取记录
+     *
+     * @param key
+     * @return 值
+     */
+    @Override
+    public String getString(final String key) {
+        return call("getString", key, true, null, new ClusterCommand<String>() {
+            @Override
+            public String execute(Jedis jedis) {
+                String value = jedis.get(key);
+                return StringUtils.isNotBlank(value) && !"null".equalsIgnoreCase(value) ? value : null;
+            }
+        });
+    }
+
+    /**
+     * 批量获取指定的多个key的值，按slot分组，每组一条MGET
+     *
+     * @param keys 指定的一个或多个key
+     * @return 与keys一一对应，key不存在时为null；执行失败返回null
+     */
+    @Override
+    public List<String> mget(final String... keys) {
+        List<String> keyList = Arrays.asList(keys);
+        String[] values = new String[keys.length];
+        try {
+            for (Map.Entry<Integer, List<Integer>> entry : groupBySlot(keyList).entrySet()) {
+                final String[] slotKeys = select(keyList, entry.getValue());
+                List<String> slotValues = execute("mget", entry.getKey(), true, maxAttempts, new ClusterCommand<List<String>>() {
+                    @Override
+                    public List<String> execute(Jedis jedis) {
+                        return jedis.mget(slotKeys);
+                    }
+                });
+                for (int i = 0; i < slotKeys.length; i++) {
+                    values[entry.getValue().get(i)] = slotValues.get(i);
+                }
+            }
+        } catch (Exception e) {
+            LOG.error(e.getLocalizedMessage(), e);
+            return null;
+        }
+        return Arrays.asList(values);
+    }
+
+    /**
+     * 添加值
+     *
+     * @param key
+     * @param value
+     * @return String 操作状态
+     */
+    @Override
+    public String setString(final String key, final String value) {
+        return call("setString", key, false, null, new ClusterCommand<String>() {
+            @Override
+            public String execute(Jedis jedis) {
+                return jedis.set(key, value);
+            }
+        });
+    }
+
+    /**
+     * 添加有过期时间的记录
+     *
+     * @param key
+     * @param seconds 过期时间，以秒为单位
+     * @param value
+     * @return String 操作状态
+     */
+    @Override
+    public String setStringEx(final String key, final int seconds, final String value) {
+        return call("setStringEx", key, false, null, new ClusterCommand<String>() {
+            @Override
+            public String execute(Jedis jedis) {
+                return jedis.setex(key, seconds, value);
+            }
+        });
+    }
+
+    /**
+     * 添加有过期时间的记录
+     *
+     * @param key        Redis数据的KEY
+     * @param timeMillis Java时间戳（毫秒数），如 date.getTime(), System.currentTimeMillis()
+     * @param value      key对应的值
+     * @return String 操作状态
+     */
+    @Override
+    public String setStringExAtMillisTimestamp(final String key, final long timeMillis, final String value) {
+        return call("setStringExAtMillisTimestamp", key, false, null, new ClusterCommand<String>() {
+            @Override
+            public String execute(Jedis jedis) {
+                String str = jedis.set(key, value);
+                long unixTimestamp = timeMillis / 1000;
+                if (unixTimestamp > 0) {
+                    jedis.expireAt(key, unixTimestamp);
+                }
+                return str;
+            }
+        });
+    }
+
+    /**
+     * 对一个key设置过期时间
+     *
+     * @param key        要设置过期时间的key
+     * @param timeMillis Java时间戳（毫秒数），如 date.getTime(), System.currentTimeMillis()
+     * @return 1=设置成功，0=设置失败
+     */
+    @Override
+    public Long expireAtMillisTimestamp(final String key, final long timeMillis) {
+        final long unixTimestamp = timeMillis / 1000;
+        if (unixTimestamp <= 0) {
+            return null;
+        }
+        return call("expireAtMillisTimestamp", key, false, null, new ClusterCommand<Long>() {
+            @Override
+            public Long execute(Jedis jedis) {
+                return jedis.expireAt(key, unixTimestamp);
+            }
+        });
+    }
+
+    /**
+     * 如果指定key不存在,设值,并设置有效时间(大于0的时间才会被设置)
+     *
+     * @param key
+     * @param value
+     * @param seconds 单位秒
+     * @return 1设值成功, 0未设值,-1设值失败
+     */
+    @Override
+    public long setnx(final String key, final String value, final int seconds) {
+        return call("setnx", key, false, -1L, new ClusterCommand<Long>() {
+            @Override
+            public Long execute(Jedis jedis) {
+                if (seconds > 0) {
+                    return OK.equals(jedis.set(key, value, NX, EX, seconds)) ? 1L : 0L;
+                }
+                return jedis.setnx(key, value);
+            }
+        });
+    }
+
+    /**
+     * 批量setnx，按slot分组，每组一次pipeline；同一hash tag的key只需要一次网络往返
+     *
+     * @param keys
+     * @param values  与keys一一对应
+     * @param seconds 单位秒，大于0时设置有效时间
+     * @return 与keys一一对应，1设值成功, 0未设值,-1设值失败
+     */
+    @Override
+    public List<Long> setnx(final List<String> keys, final List<String> values, final int seconds) {
+        Long[] results = new Long[keys.size()];
+        Arrays.fill(results, -1L);
+        for (Map.Entry<Integer, List<Integer>> entry : groupBySlot(keys).entrySet()) {
+            final List<Integer> indexes = entry.getValue();
+            final List<Response<String>> responses = new ArrayList<Response<String>>(indexes.size());
+            List<Object> replies = executePipelined("setnxBatch", entry.getKey(), false, new RedisPipelineCallback() {
+                @Override
+                public void doInPipeline(RedisPipeline pipeline) {
+                    for (Integer index : indexes) {
+                        responses.add(pipeline.setnx(keys.get(index), values.get(index), seconds));
+                    }
+                }
+            });
+            if (replies == null) {
+                continue;
+            }
+            for (int i = 0; i < indexes.size(); i++) {
+                Object reply = replies.get(i);
+                if (!(reply instanceof Exception)) {
+                    results[indexes.get(i)] = OK.equals(responses.get(i).get()) ? 1L : 0L;
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 在routingKey的slot所在的主节点上批量发送命令，命令中的key必须与routingKey位于同一个slot（使用相同的hash tag）
+     * 回调可能加入了部分命令后才失败，所以连接失败时不重试
+     *
+     * @param routingKey    决定发给哪个节点
+     * @param transactional true:命令包在MULTI/EXEC中原子执行
+     * @param callback      加入命令
+     * @return 所有命令的返回值，按加入顺序，出错的命令对应异常对象；执行失败返回null，此时不能调用Response.get()
+     */
+    @Override
+    public List<Object> executePipelined(String routingKey, boolean transactional, RedisPipelineCallback callback) {
+        return executePipelined(transactional ? "multi" : "pipeline", JedisClusterCRC16.getSlot(routingKey),
+                transactional, callback);
+    }
+
+    private List<Object> executePipelined(String name, int slot, final boolean transactional,
+                                          final RedisPipelineCallback callback) {
+        try {
+            List<Object> replies = execute(name, slot, false, 1, new ClusterCommand<List<Object>>() {
+                @Override
+                public List<Object> execute(Jedis jedis) {
+                    Pipeline pipeline = jedis.pipelined();
+                    Response<List<Object>> exec = null;
+                    if (transactional) {
+                        pipeline.multi();
+                    }
+                    callback.doInPipeline(new RedisPipeline(pipeline));
+                    if (transactional) {
+                        exec = pipeline.exec();
+                    }
+                    List<Object> replies = pipeline.syncAndReturnAll();
+                    return transactional ? exec.get() : replies;
+                }
+            });
+            for (Object reply : replies) {
+                if (reply instanceof JedisMovedDataException) {
+                    JedisMovedDataException moved = (JedisMovedDataException) reply;
+                    topology.moved(moved.getSlot(), moved.getTargetNode());
+                    break;
+                }
+            }
+            return replies;
+        } catch (Exception e) {
+            LOG.error(e.getLocalizedMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * 执行lua脚本，按第一个key路由，所有key必须位于同一个slot；没有key时发给slot 0所在的节点
+     *
+     * @param script
+     * @param keys
+     * @param args
+     * @return 脚本返回值，执行失败返回null
+     */
+    @Override
+    public Object eval(final String script, final List<String> keys, final List<String> args) {
+        int slot = keys.isEmpty() ? 0 : JedisClusterCRC16.getSlot(keys.get(0));
+        try {
+            return execute("eval", slot, false, maxAttempts, new ClusterCommand<Object>() {
+                @Override
+                public Object execute(Jedis jedis) {
+                    return jedis.eval(script, keys, args);
+                }
+            });
+        } catch (Exception e) {
+            LOG.error(e.getLocalizedMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * 查询符合匹配条件的键，依次SCAN每个主节点
+     *
+     * @param pattern 前缀
+     * @return
+     */
+    @Override
+    public Set<String> keys(String pattern) {
+        final Set<String> keySet = new HashSet<String>();
+        scan(pattern, new MQRedisKeyCallback() {
+            @Override
+            public void handle(List<String> keys) {
+                keySet.addAll(keys);
+            }
+        });
+        return keySet;
+    }
+
+    /**
+     * 依次在每个主节点上用SCAN MATCH pattern* COUNT scanCount 逐批遍历键，每批交给callback处理
+     * 每批单独借用连接，callback中可以调用其他redis操作；遍历期间slot迁移的key可能遗漏或重复
+     *
+     * @param pattern  前缀
+     * @param callback
+     * @return 遍历到的key数量（可能有重复），某个节点出错时跳过该节点
+     */
+    @Override
+    public long scan(String pattern, MQRedisKeyCallback callback) {
+        ScanParams params = new ScanParams().match(pattern + "*").count(scanCount);
+        long scanned = 0;
+        for (JedisPool master : topology.masters()) {
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> page = null;
+                boolean isBroken = false;
+                Jedis jedis = null;
+                long startNanos = System.nanoTime();
+                try {
+                    jedis = borrow(master);
+                    page = jedis.scan(cursor, params);
+                } catch (Exception e) {
+                    LOG.error(e.getLocalizedMessage(), e);
+                    isBroken = e instanceof JedisConnectionException;
+                } finally {
+                    release(jedis, isBroken);
+                    redisMetrics.record("scan", startNanos, page == null);
+                }
+                if (page == null) {
+                    break;
+                }
+                cursor = page.getStringCursor();
+                if (!page.getResult().isEmpty()) {
+                    scanned += page.getResult().size();
+                    callback.handle(page.getResult());
+                }
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        }
+        return scanned;
+    }
+
+    /**
+     * 删除符合匹配条件的键，SCAN逐批取出后用UNLINK批量删除
+     *
+     * @param pattern 前缀
+     * @return 删除的数量
+     */
+    @Override
+    public long delByPattern(String pattern) {
+        final long[] deleted = {0};
+        scan(pattern, new MQRedisKeyCallback() {
+            @Override
+            public void handle(List<String> keys) {
+                deleted[0] += unlink(keys);
+            }
+        });
+        return deleted[0];
+    }
+
+    /**
+     * 删除键，按slot分组，每组按unlinkBatchSize分批在一个pipeline中发送
+     * UNLINK在后台线程释放内存，redis 4.0以下不支持UNLINK时改用DEL
+     *
+     * @param keys
+     * @return 删除的数量，某个slot失败时不计入
+     */
+    @Override
+    public long unlink(final List<String> keys) {
+        long deleted = 0;
+        for (Map.Entry<Integer, List<Integer>> entry : groupBySlot(keys).entrySet()) {
+            final String[] slotKeys = select(keys, entry.getValue());
+            try {
+                deleted += execute("unlink", entry.getKey(), false, maxAttempts, new ClusterCommand<Long>() {
+                    @Override
+                    public Long execute(Jedis jedis) {
+                        Pipeline pipeline = jedis.pipelined();
+                        List<Response<Object>> responses = new ArrayList<Response<Object>>();
+                        for (int from = 0; from < slotKeys.length; from += unlinkBatchSize) {
+                            int to = Math.min(from + unlinkBatchSize, slotKeys.length);
+                            List<byte[]> batchKeys = new ArrayList<byte[]>(to - from);
+                            for (int i = from; i < to; i++) {
+                                batchKeys.add(SafeEncoder.encode(slotKeys[i]));
+                            }
+                            responses.add(pipeline.eval(UNLINK_SCRIPT, batchKeys, Collections.<byte[]>emptyList()));
+                        }
+                        pipeline.sync();
+                        long slotDeleted = 0;
+                        for (Response<Object> response : responses) {
+                            slotDeleted += (Long) response.get();
+                        }
+                        return slotDeleted;
+                    }
+                });
+            } catch (Exception e) {
+                LOG.error(e.getLocalizedMessage(), e);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * 删除keys对应的记录,可以是多个key，按slot分组，每组一条DEL
+     *
+     * @param keys 要删除的key数组
+     * @return 删除的记录数，某个slot失败时不计入
+     */
+    @Override
+    public long del(String... keys) {
+        List<String> keyList = Arrays.asList(keys);
+        long deleted = 0;
+        for (Map.Entry<Integer, List<Integer>> entry : groupBySlot(keyList).entrySet()) {
+            final String[] slotKeys = select(keyList, entry.getValue());
+            try {
+                deleted += execute("del", entry.getKey(), false, maxAttempts, new ClusterCommand<Long>() {
+                    @Override
+                    public Long execute(Jedis jedis) {
+                        return jedis.del(slotKeys);
+                    }
+                });
+            } catch (Exception e) {
+                LOG.error(e.getLocalizedMessage(), e);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * 验证key 是否存在
+     *
+     * @param key
+     * @return
+     */
+    @Override
+    public boolean existKey(final String key) {
+        return call("existKey", key, true, false, new ClusterCommand<Boolean>() {
+            @Override
+            public Boolean execute(Jedis jedis) {
+                return jedis.exists(key);
+            }
+        });
+    }
+
+    /**
+     * 归还连接，连接由哪个节点的连接池借出就还给哪个连接池
+     *
+     * @param jedis    Jedis连接对象
+     * @param isBroken true: instance出错, false:instance正常
+     */
+    @Override
+    public void release(Jedis jedis, boolean isBroken) {
+        if (jedis != null) {
+            if (isBroken) {
+                redisMetrics.recordBroken();
+                // 断开后再归还，下次使用时重新建立连接
+                jedis.disconnect();
+            }
+            // 归还给借出该连接的连接池，连接读写出错时close按broken归还
+            jedis.close();
+        }
+    }
+
+    /**
+     * 添加有过期时间的记录
+     *
+     * @param strKey
+     * @param seconds 过期时间，以秒为单位
+     * @param obj
+     */
+    @Override
+    public void setObjex(String strKey, final int seconds, Object obj) {
+        final byte[] value = serialize(obj);
+        if (value == null) {
+            return;
+        }
+        final byte[] key = SafeEncoder.encode(strKey);
+        call("setObjex", strKey, false, null, new ClusterCommand<String>() {
+            @Override
+            public String execute(Jedis jedis) {
+                return jedis.setex(key, seconds, value);
+            }
+        });
+    }
+
+    /**
+     * cache对象
+     * cache的实际key = obj类名 + "_" + key(参数)
+     *
+     * @param strKey - key
+     * @param obj    - cache对象
+     */
+    @Override
+    public void setObj(String strKey, Object obj) {
+        final byte[] value = serialize(obj);
+        if (value == null) {
+            return;
+        }
+        String key = obj.getClass().getSimpleName() + "_" + strKey;
+        final byte[] keyBytes = SafeEncoder.encode(key);
+        call("setObj", key, false, null, new ClusterCommand<String>() {
+            @Override
+            public String execute(Jedis jedis) {
+                return jedis.set(keyBytes, value);
+            }
+        });
+    }
+
+    /**
+     * 取得cache对象
+     *
+     * @param strKey   - key
+     * @param objClass - 对象Class
+     * @return
+     */
+    @Override
+    public Object getObj(String strKey, Class objClass) {
+        return getObjex(objClass.getSimpleName() + "_" + strKey, objClass);
+    }
+
+    @Override
+    public Object getObjex(String strKey, Class objClass) {
+        final byte[] key = SafeEncoder.encode(strKey);
+        byte[] value = call("getObjex", strKey, true, null, new ClusterCommand<byte[]>() {
+            @Override
+            public byte[] execute(Jedis jedis) {
+                return jedis.get(key);
+            }
+        });
+        return value == null ? null : unserialize(value, objClass);
+    }
+
+    /**
+     * 删除cache对象
+     *
+     * @param strKey
+     * @param objClass
+     * @return
+     */
+    @Override
+    public long delObj(String strKey, Class objClass) {
+        return del(objClass.getSimpleName() + "_" + strKey);
+    }
+
+    /**
+     * 删除cache对象
+     *
+     * @param strKeys
+     * @param objClass
+     * @return
+     */
+    @Override
+    public long delObjs(String[] strKeys, Class objClass) {
+        String[] keys = new String[strKeys.length];
+        for (int i = 0; i < strKeys.length; i++) {
+            keys[i] = objClass.getSimpleName() + "_" + strKeys[i];
+        }
+        return del(keys);
+    }
+
+    /**
+     * 序列化对象，格式由RedisValueCodec决定
+     *
+     * @param object
+     * @return
+     */
+    @Override
+    public byte[] serialize(Object object) {
+        try {
+            return redisValueCodec.encode(object);
+        } catch (Exception ex) {
+            LOG.error(ex.getLocalizedMessage(), ex);
+        }
+
+        return null;
+    }
+
+    /**
+     * 反序列化，jdk格式的值得到原对象，json格式的值没有目标类型，解析为JSONObject，需要具体类型时用getObj
+     *
+     * @param bytes
+     * @return
+     */
+    @Override
+    public Object unserialize(byte[] bytes) {
+        return unserialize(bytes, null);
+    }
+
+    private Object unserialize(byte[] bytes, Class<?> objClass) {
+        try {
+            return redisValueCodec.decode(bytes, objClass);
+        } catch (Exception ex) {
+            LOG.error(ex.getLocalizedMessage(), ex);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Long lpush(final String key, final String... strings) {
+        return call("lpush", key, false, null, new ClusterCommand<Long>() {
+            @Override
+            public Long execute(Jedis jedis) {
+                return jedis.lpush(key, strings);
+            }
+        });
+    }
+
+    @Override
+    public Long rpush(final String key, final String... strings) {
+        return call("rpush", key, false, null, new ClusterCommand<Long>() {
+            @Override
+            public Long execute(Jedis jedis) {
+                return jedis.rpush(key, strings);
+            }
+        });
+    }
+
+    @Override
+    public List<String> lrange(final String key, final long start, final long end) {
+        return call("lrange", key, true, null, new ClusterCommand<List<String>>() {
+            @Override
+            public List<String> execute(Jedis jedis) {
+                return jedis.lrange(key, start, end);
+            }
+        });
+    }
+
+    @Override
+    public Long llen(final String key) {
+        return call("llen", key, true, null, new ClusterCommand<Long>() {
+            @Override
+            public Long execute(Jedis jedis) {
+                return jedis.llen(key);
+            }
+        });
+    }
+
+    @Override
+    public Long hset(final String key, final String field, final String value) {
+        return call("hset", key, false, null, new ClusterCommand<Long>() {
+            @Override
+            public Long execute(Jedis jedis) {
+                return jedis.hset(key, field, value);
+            }
+        });
+    }
+
+    @Override
+    public String hget(final String key, final String field) {
+        return call("hget", key, true, null, new ClusterCommand<String>() {
+            @Override
+            public String execute(Jedis jedis) {
+                return jedis.hget(key, field);
+            }
+        });
+    }
+
+    @Override
+    public Set<String> hkeys(final String key) {
+        return call("hkeys", key, true, null, new ClusterCommand<Set<String>>() {
+            @Override
+            public Set<String> execute(Jedis jedis) {
+                return jedis.hkeys(key);
+            }
+        });
+    }
+
+    @Override
+    public List<String> hvals(final String key) {
+        return call("hvals", key, true, null, new ClusterCommand<List<String>>() {
+            @Override
+            public List<String> execute(Jedis jedis) {
+                return jedis.hvals(key);
+            }
+        });
+    }
+
+    @Override
+    public String hmset(final String key, final Map<String, String> hash) {
+        return call("hmset", key, false, null, new ClusterCommand<String>() {
+            @Override
+            public String execute(Jedis jedis) {
+                return jedis.hmset(key, hash);
+            }
+        });
+    }
+
+    @Override
+    public List<String> hmget(final String key, final String... fields) {
+        return call("hmget", key, true, null, new ClusterCommand<List<String>>() {
+            @Override
+            public List<String> execute(Jedis jedis) {
+                return jedis.hmget(key, fields);
+            }
+        });
+    }
+
+    @Override
+    public Map<String, String> hgetall(final String key) {
+        return call("hgetall", key, true, null, new ClusterCommand<Map<String, String>>() {
+            @Override
+            public Map<String, String> execute(Jedis jedis) {
+                return jedis.hgetAll(key);
+            }
+        });
+    }
+
+    @Override
+    public Long hdel(final String key, final String... fields) {
+        return call("hdel", key, false, null, new ClusterCommand<Long>() {
+            @Override
+            public Long execute(Jedis jedis) {
+                return jedis.hdel(key, fields);
+            }
+        });
+    }
+
+    @Override
+    public Long zadd(final String key, final double score, final String member) {
+        return call("zadd", key, false, null, new ClusterCommand<Long>() {
+            @Override
+            public Long execute(Jedis jedis) {
+                return jedis.zadd(key, score, member);
+            }
+        });
+    }
+
+    @Override
+    public Long zadd(final String key, final Map<String, Double> scoreMembers) {
+        return call("zadd", key, false, null, new ClusterCommand<Long>() {
+            @Override
+            public Long execute(Jedis jedis) {
+                return jedis.zadd(key, scoreMembers);
+            }
+        });
+    }
+
+    @Override
+    public Set<String> zrangeByScore(final String key, final double min, final double max) {
+        return call("zrangeByScore", key, true, null, new ClusterCommand<Set<String>>() {
+            @Override
+            public Set<String> execute(Jedis jedis) {
+                return jedis.zrangeByScore(key, min, max);
+            }
+        });
+    }
+
+    @Override
+    public Set<String> zrangeByScore(final String key, final double min, final double max,
+                                     final int offset, final int count) {
+        return call("zrangeByScore", key, true, null, new ClusterCommand<Set<String>>() {
+            @Override
+            public Set<String> execute(Jedis jedis) {
+                return jedis.zrangeByScore(key, min, max, offset, count);
+            }
+        });
+    }
+
+    @Override
+    public Set<String> zrange(final String key, final long start, final long end) {
+        return call("zrange", key, true, null, new ClusterCommand<Set<String>>() {
+            @Override
+            public Set<String> execute(Jedis jedis) {
+                return jedis.zrange(key, start, end);
+            }
+        });
+    }
+
+    @Override
+    public Long zrem(final String key, final String... members) {
+        return call("zrem", key, false, null, new ClusterCommand<Long>() {
+            @Override
+            public Long execute(Jedis jedis) {
+                return jedis.zrem(key, members);
+            }
+        });
+    }
+
+    @Override
+    public Long zcard(final String key) {
+        return call("zcard", key, true, null, new ClusterCommand<Long>() {
+            @Override
+            public Long execute(Jedis jedis) {
+                return jedis.zcard(key);
+            }
+        });
+    }
+
+    @Override
+    public Double zscore(final String key, final String member) {
+        return call("zscore", key, true, null, new ClusterCommand<Double>() {
+            @Override
+            public Double execute(Jedis jedis) {
+                return jedis.zscore(key, member);
+            }
+        });
+    }
+
+    @Override
+    public Double zincrby(final String key, final double score, final String member) {
+        return call("zincrby", key, false, null, new ClusterCommand<Double>() {
+            @Override
+            public Double execute(Jedis jedis) {
+                return jedis.zincrby(key, score, member);
+            }
+        });
+    }
+
+    @Override
+    public Long expire(final String key, final int seconds) {
+        return call("expire", key, false, null, new ClusterCommand<Long>() {
+            @Override
+            public Long execute(Jedis jedis) {
+                return jedis.expire(key, seconds);
+            }
+        });
+    }
+
+    @Override
+    public Long ttl(final String key) {
+        return call("ttl", key, true, null, new ClusterCommand<Long>() {
+            @Override
+            public Long execute(Jedis jedis) {
+                return jedis.ttl(key);
+            }
+        });
+    }
+
+    /**
+     * 清空所有主节点
+     */
+    @Override
+    public void flashAll() {
+        for (JedisPool master : topology.masters()) {
+            Jedis jedis = null;
+            boolean isBroken = false;
+            long startNanos = System.nanoTime();
+            try {
+                jedis = borrow(master);
+                jedis.flushAll();
+            } catch (Exception e) {
+                LOG.error(e.getLocalizedMessage(), e);
+                isBroken = true;
+            } finally {
+                release(jedis, isBroken);
+                redisMetrics.record("flashAll", startNanos, isBroken);
+            }
+        }
+    }
+
+    @Override
+    public Long incr(final String key) {
+        return call("incr", key, false, 0L, new ClusterCommand<Long>() {
+            @Override
+            public Long execute(Jedis jedis) {
+                return jedis.incr(key);
+            }
+        });
+    }
+}
@@ -26,10 +26,20 @@ public interface MQRedisDao {
 
     long setnx(String key, String value, int seconds);
 
+    List<Long> setnx(List<String> keys, List<String> values, int seconds);
+
+    Object eval(String script, List<String> keys, List<String> args);
+
+    List<Object> executePipelined(String routingKey, boolean transactional, RedisPipelineCallback callback);
+
     Set<String> keys(String pattern);
 
+    long scan(String pattern, MQRedisKeyCallback callback);
+
     long delByPattern(String pattern);
 
+    long unlink(List<String> keys);
+
     long del(String... keys);
 
     //void returnJedis(Jedis jedis);
@@ -93,6 +103,8 @@ public interface MQRedisDao {
 
     Long zrem(String key, String... members);
 
+    Long zcard(String key);
+
     Double zscore(String key, String member);
 
     Double zincrby(String key, double score, String member);
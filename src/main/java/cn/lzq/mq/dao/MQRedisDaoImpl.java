@@ -4,15 +4,22 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.SafeEncoder;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -22,27 +29,68 @@ import java.util.Set;
  * @date 2017/8/10
  */
 @Repository
+@ConditionalOnProperty(name = "mq.redis.mode", havingValue = "standalone", matchIfMissing = true)
 public class MQRedisDaoImpl implements MQRedisDao {
     private static final Logger LOG = Logger.getLogger(MQRedisDaoImpl.class);
 
+    private static final String OK = "OK";
+
+    private static final String NX = "NX";
+
+    private static final String EX = "EX";
+
+    /**
+     * UNLINK不可用时（redis 4.0以下）改用DEL
+     */
+    private static final byte[] UNLINK_SCRIPT = SafeEncoder.encode(
+            "local n = redis.pcall('UNLINK', unpack(KEYS)) "
+                    + "if type(n) == 'table' and n.err then return redis.call('DEL', unpack(KEYS)) end "
+                    + "return n");
+
     @Autowired
     @Qualifier("jedisPool")
     private JedisPool mqJedisPool;
 
+    @Autowired
+    private RedisValueCodec redisValueCodec;
+
+    @Autowired
+    private RedisMetrics redisMetrics;
+
+    /**
+     * SCAN每次遍历的数量
+     */
+    @Value("${mq.redis.scanCount:1000}")
+    private int scanCount;
+
     /**
-     * 从jedis连接池中获取获取jedis对象
+     * 每条UNLINK命令删除的key数量
+     */
+    @Value("${mq.redis.unlinkBatchSize:200}")
+    private int unlinkBatchSize;
+
+    @PostConstruct
+    public void init() {
+        redisMetrics.registerPool("default", mqJedisPool);
+    }
+
+    /**
+     * 从jedis连接池中获取获取jedis对象，记录借用连接的等待时间
      *
      * @return
      */
     private Jedis getJedis() {
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
             jedis = mqJedisPool.getResource();
         } catch (JedisException e) {
+            redisMetrics.recordBorrow(startNanos, true);
             LOG.error(e.getLocalizedMessage(), e);
             returnBrokenJedis(jedis);
             throw e;
         }
+        redisMetrics.recordBorrow(startNanos, false);
         return jedis;
     }
 
@@ -64,6 +112,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
      */
     private void returnBrokenJedis(Jedis jedis) {
         if (jedis != null) {
+            redisMetrics.recordBroken();
             mqJedisPool.returnBrokenResource(jedis);
         }
     }
@@ -79,6 +128,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
         String value = null;
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             if (jedis.exists(key)) {
@@ -90,6 +140,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("getString", startNanos, isBroken);
         }
         return value;
     }
@@ -108,6 +159,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
         List<String> values = null;
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             values = jedis.mget(keys);
@@ -116,6 +168,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("mget", startNanos, isBroken);
         }
         return values;
     }
@@ -131,6 +184,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public String setString(String key, String value) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             String str = jedis.set(key, value);
@@ -140,6 +194,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("setString", startNanos, isBroken);
         }
         return null;
     }
@@ -156,6 +211,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public String setStringEx(String key, int seconds, String value) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             String str = jedis.setex(key, seconds, value);
@@ -165,6 +221,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("setStringEx", startNanos, isBroken);
         }
         return null;
     }
@@ -181,6 +238,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public String setStringExAtMillisTimestamp(String key, long timeMillis, String value) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             String str = jedis.set(key, value);
@@ -199,6 +257,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("setStringExAtMillisTimestamp", startNanos, isBroken);
         }
         return null;
     }
@@ -214,6 +273,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Long expireAtMillisTimestamp(final String key, final long timeMillis) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             /*
@@ -230,6 +290,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("expireAtMillisTimestamp", startNanos, isBroken);
         }
         return null;
     }
@@ -247,65 +308,235 @@ public class MQRedisDaoImpl implements MQRedisDao {
         boolean isBroken = false;
         Jedis jedis = null;
         long result = -1;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
-            result = jedis.setnx(key, value);
-            if (result == 1 && seconds > 0) {
-                jedis.expire(key, seconds);
+            if (seconds > 0) {
+                // SET NX EX 一条命令完成，避免SETNX成功后EXPIRE前连接断开留下永不过期的key
+                result = OK.equals(jedis.set(key, value, NX, EX, seconds)) ? 1 : 0;
+            } else {
+                result = jedis.setnx(key, value);
             }
         } catch (Exception e) {
             LOG.error(e.getLocalizedMessage(), e);
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("setnx", startNanos, isBroken);
         }
         return result;
     }
 
     /**
-     * 查询符合匹配条件的键
+     * 批量setnx，一次pipeline完成，只占用一次网络往返
      *
-     * @param pattern
-     * @return
+     * @param keys
+     * @param values  与keys一一对应
+     * @param seconds 单位秒，大于0时设置有效时间
+     * @return 与keys一一对应，1设值成功, 0未设值,-1设值失败
      */
     @Override
-    public Set<String> keys(String pattern) {
+    public List<Long> setnx(final List<String> keys, final List<String> values, final int seconds) {
+        final List<Response<String>> responses = new ArrayList<Response<String>>(keys.size());
+        List<Object> replies = doExecutePipelined("setnxBatch", false, new RedisPipelineCallback() {
+            @Override
+            public void doInPipeline(RedisPipeline pipeline) {
+                for (int i = 0; i < keys.size(); i++) {
+                    responses.add(pipeline.setnx(keys.get(i), values.get(i), seconds));
+                }
+            }
+        });
+        List<Long> results = new ArrayList<Long>(keys.size());
+        for (Response<String> response : responses) {
+            results.add(replies == null ? -1L : OK.equals(response.get()) ? 1L : 0L);
+        }
+        return results;
+    }
+
+    /**
+     * @param command 监控指标中的名称
+     */
+    private List<Object> doExecutePipelined(String command, boolean transactional, RedisPipelineCallback callback) {
         boolean isBroken = false;
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
-            return jedis.keys(pattern + "*");
+            Pipeline pipeline = jedis.pipelined();
+            Response<List<Object>> exec = null;
+            if (transactional) {
+                pipeline.multi();
+            }
+            callback.doInPipeline(new RedisPipeline(pipeline));
+            if (transactional) {
+                exec = pipeline.exec();
+            }
+            List<Object> replies = pipeline.syncAndReturnAll();
+            return transactional ? exec.get() : replies;
         } catch (Exception e) {
             LOG.error(e.getLocalizedMessage(), e);
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record(command, startNanos, isBroken);
         }
         return null;
     }
 
     /**
-     * 删除符合匹配条件的键
+     * 在一个连接上批量发送命令，只借用一次连接，所有命令只等待一次网络往返
+     * 单节点模式忽略routingKey；调用方仍需传入命令中key共同的hash tag，切换到集群模式时不需要修改
      *
-     * @param pattern
+     * @param routingKey    集群模式下决定发给哪个节点
+     * @param transactional true:命令包在MULTI/EXEC中原子执行，其他客户端看不到中间状态；
+     *                      某条命令执行出错不会回滚其他命令，出错命令的Response.get()抛出异常
+     * @param callback      加入命令
+     * @return 所有命令的返回值，按加入顺序，出错的命令对应异常对象；执行失败返回null，此时不能调用Response.get()
+     */
+    @Override
+    public List<Object> executePipelined(String routingKey, boolean transactional, RedisPipelineCallback callback) {
+        return doExecutePipelined(transactional ? "multi" : "pipeline", transactional, callback);
+    }
+
+    /**
+     * 执行lua脚本，脚本内的命令在服务端原子执行，只占用一次网络往返
+     *
+     * @param script
+     * @param keys
+     * @param args
+     * @return 脚本返回值，执行失败返回null
+     */
+    @Override
+    public Object eval(String script, List<String> keys, List<String> args) {
+        boolean isBroken = false;
+        Jedis jedis = null;
+        long startNanos = System.nanoTime();
+        try {
+            jedis = getJedis();
+            return jedis.eval(script, keys, args);
+        } catch (Exception e) {
+            LOG.error(e.getLocalizedMessage(), e);
+            isBroken = true;
+        } finally {
+            release(jedis, isBroken);
+            redisMetrics.record("eval", startNanos, isBroken);
+        }
+        return null;
+    }
+
+    /**
+     * 查询符合匹配条件的键，用SCAN分批取出，不阻塞redis；结果仍全部放在内存中，key很多时用scan逐批处理
+     *
+     * @param pattern 前缀
+     * @return
+     */
+    @Override
+    public Set<String> keys(String pattern) {
+        final Set<String> keySet = new HashSet<String>();
+        scan(pattern, new MQRedisKeyCallback() {
+            @Override
+            public void handle(List<String> keys) {
+                keySet.addAll(keys);
+            }
+        });
+        return keySet;
+    }
+
+    /**
+     * 用SCAN MATCH pattern* COUNT scanCount 逐批遍历键，每批交给callback处理
+     * 每批单独借用连接，callback中可以调用其他redis操作
+     *
+     * @param pattern  前缀
+     * @param callback
+     * @return 遍历到的key数量（可能有重复），出错时为出错前的数量
+     */
+    @Override
+    public long scan(String pattern, MQRedisKeyCallback callback) {
+        ScanParams params = new ScanParams().match(pattern + "*").count(scanCount);
+        String cursor = ScanParams.SCAN_POINTER_START;
+        long scanned = 0;
+        do {
+            ScanResult<String> page;
+            boolean isBroken = false;
+            Jedis jedis = null;
+            long startNanos = System.nanoTime();
+            try {
+                jedis = getJedis();
+                page = jedis.scan(cursor, params);
+            } catch (Exception e) {
+                LOG.error(e.getLocalizedMessage(), e);
+                isBroken = true;
+                return scanned;
+            } finally {
+                release(jedis, isBroken);
+                redisMetrics.record("scan", startNanos, isBroken);
+            }
+            cursor = page.getStringCursor();
+            if (!page.getResult().isEmpty()) {
+                scanned += page.getResult().size();
+                callback.handle(page.getResult());
+            }
+        } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        return scanned;
+    }
+
+    /**
+     * 删除符合匹配条件的键，SCAN逐批取出后用UNLINK批量删除
+     *
+     * @param pattern 前缀
+     * @return 删除的数量
      */
     @Override
     public long delByPattern(String pattern) {
+        final long[] deleted = {0};
+        scan(pattern, new MQRedisKeyCallback() {
+            @Override
+            public void handle(List<String> keys) {
+                deleted[0] += unlink(keys);
+            }
+        });
+        return deleted[0];
+    }
+
+    /**
+     * 删除键，按unlinkBatchSize分批，所有批次在一个pipeline中发送
+     * UNLINK在后台线程释放内存，redis 4.0以下不支持UNLINK时改用DEL
+     *
+     * @param keys
+     * @return 删除的数量
+     */
+    @Override
+    public long unlink(List<String> keys) {
+        if (keys.isEmpty()) {
+            return 0L;
+        }
         boolean isBroken = false;
         Jedis jedis = null;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
-            Set<String> keySet = jedis.keys(pattern + "*");
-            if (keySet != null && keySet.size() > 0) {
-                String[] keys = new String[keySet.size()];
-                keySet.toArray(keys);
-                return jedis.del(keys);
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<Object>> responses = new ArrayList<Response<Object>>();
+            for (int from = 0; from < keys.size(); from += unlinkBatchSize) {
+                List<String> batch = keys.subList(from, Math.min(from + unlinkBatchSize, keys.size()));
+                List<byte[]> batchKeys = new ArrayList<byte[]>(batch.size());
+                for (String key : batch) {
+                    batchKeys.add(SafeEncoder.encode(key));
+                }
+                responses.add(pipeline.eval(UNLINK_SCRIPT, batchKeys, Collections.<byte[]>emptyList()));
+            }
+            pipeline.sync();
+            long deleted = 0;
+            for (Response<Object> response : responses) {
+                deleted += (Long) response.get();
             }
+            return deleted;
         } catch (Exception e) {
             LOG.error(e.getLocalizedMessage(), e);
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("unlink", startNanos, isBroken);
         }
         return 0L;
     }
@@ -321,6 +552,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
         boolean isBroken = false;
         Jedis jedis = null;
         long result = 0;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             return jedis.del(keys);
@@ -329,6 +561,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("del", startNanos, isBroken);
         }
         return result;
     }
@@ -343,6 +576,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public boolean existKey(String key) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             return jedis.exists(key);
@@ -351,6 +585,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("existKey", startNanos, isBroken);
         }
         return false;
     }
@@ -365,6 +600,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public void release(Jedis jedis, boolean isBroken) {
         if (jedis != null) {
             if (isBroken) {
+                redisMetrics.recordBroken();
                 mqJedisPool.returnBrokenResource(jedis);
             } else {
                 mqJedisPool.returnResource(jedis);
@@ -383,6 +619,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public void setObjex(String strKey, int seconds, Object obj) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             String key = strKey;
             jedis = getJedis();
@@ -395,6 +632,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("setObjex", startNanos, isBroken);
         }
     }
 
@@ -409,6 +647,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public void setObj(String strKey, Object obj) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             String key = obj.getClass().getSimpleName() + "_" + strKey;
             jedis = getJedis();
@@ -422,6 +661,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("setObj", startNanos, isBroken);
         }
     }
 
@@ -437,18 +677,20 @@ public class MQRedisDaoImpl implements MQRedisDao {
         Jedis jedis = null;
         Object returnObj = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             String key = objClass.getSimpleName() + "_" + strKey;
             jedis = getJedis();
             byte[] value = jedis.get(key.getBytes());
             if (value != null) {
-                returnObj = unserialize(value);
+                returnObj = unserialize(value, objClass);
             }
         } catch (Exception e) {
             LOG.error(e.getLocalizedMessage(), e);
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("getObj", startNanos, isBroken);
         }
         return returnObj;
     }
@@ -458,19 +700,21 @@ public class MQRedisDaoImpl implements MQRedisDao {
         Jedis jedis = null;
         Object returnObj = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             String key = strKey;
             jedis = getJedis();
             byte[] value = jedis.get(key.getBytes());
 
             if (value != null) {
-                returnObj = unserialize(value);
+                returnObj = unserialize(value, objClass);
             }
         } catch (Exception e) {
             LOG.error(e.getLocalizedMessage(), e);
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("getObjex", startNanos, isBroken);
         }
         return returnObj;
     }
@@ -487,6 +731,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
         boolean isBroken = false;
         Jedis jedis = null;
         long result = 0;
+        long startNanos = System.nanoTime();
         try {
             String key = objClass.getSimpleName() + "_" + strKey;
             jedis = getJedis();
@@ -496,6 +741,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("delObj", startNanos, isBroken);
         }
 
         return result;
@@ -513,6 +759,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
         boolean isBroken = false;
         Jedis jedis = null;
         long result = 0;
+        long startNanos = System.nanoTime();
         try {
             byte[][] byteKeys = new byte[strKeys.length][];
             int cnt = 0;
@@ -529,57 +776,45 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("delObjs", startNanos, isBroken);
         }
 
         return result;
     }
 
     /**
-     * 序列化对象
+     * 序列化对象，格式由RedisValueCodec决定
      *
      * @param object
      * @return
      */
     @Override
     public byte[] serialize(Object object) {
-        ObjectOutputStream oos = null;
-        ByteArrayOutputStream baos = null;
-
         try {
-            // 序列化
-            baos = new ByteArrayOutputStream();
-            oos = new ObjectOutputStream(baos);
-            oos.writeObject(object);
-            byte[] bytes = baos.toByteArray();
-
-            return bytes;
+            return redisValueCodec.encode(object);
         } catch (Exception ex) {
             LOG.error(ex.getLocalizedMessage(), ex);
-            ex.printStackTrace();
         }
 
         return null;
     }
 
     /**
-     * 反序列化
+     * 反序列化，jdk格式的值得到原对象，json格式的值没有目标类型，解析为JSONObject，需要具体类型时用getObj
      *
      * @param bytes
      * @return
      */
     @Override
     public Object unserialize(byte[] bytes) {
-        ByteArrayInputStream bais = null;
+        return unserialize(bytes, null);
+    }
 
+    private Object unserialize(byte[] bytes, Class<?> objClass) {
         try {
-            // 反序列化
-            bais = new ByteArrayInputStream(bytes);
-            ObjectInputStream ois = new ObjectInputStream(bais);
-
-            return ois.readObject();
+            return redisValueCodec.decode(bytes, objClass);
         } catch (Exception ex) {
             LOG.error(ex.getLocalizedMessage(), ex);
-            ex.printStackTrace();
         }
 
         return null;
@@ -596,6 +831,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Long lpush(final String key, final String... strings) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             Long result = jedis.lpush(key, strings);
@@ -605,6 +841,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("lpush", startNanos, isBroken);
         }
         return null;
     }
@@ -620,6 +857,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Long rpush(final String key, final String... strings) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             Long result = jedis.rpush(key, strings);
@@ -629,6 +867,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("rpush", startNanos, isBroken);
         }
         return null;
     }
@@ -645,6 +884,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public List<String> lrange(final String key, final long start, final long end) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             List<String> result = jedis.lrange(key, start, end);
@@ -654,6 +894,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("lrange", startNanos, isBroken);
         }
         return null;
     }
@@ -668,6 +909,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Long llen(final String key) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             Long result = jedis.llen(key);
@@ -677,6 +919,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("llen", startNanos, isBroken);
         }
         return null;
     }
@@ -693,6 +936,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Long hset(final String key, final String field, final String value) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             Long result = jedis.hset(key, field, value);
@@ -702,6 +946,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("hset", startNanos, isBroken);
         }
         return null;
     }
@@ -717,6 +962,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public String hget(final String key, final String field) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             String result = jedis.hget(key, field);
@@ -726,6 +972,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("hget", startNanos, isBroken);
         }
         return null;
     }
@@ -734,6 +981,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Set<String> hkeys(final String key) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             return jedis.hkeys(key);
@@ -742,6 +990,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("hkeys", startNanos, isBroken);
         }
         return null;
     }
@@ -750,6 +999,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public List<String> hvals(final String key) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             return jedis.hvals(key);
@@ -758,6 +1008,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("hvals", startNanos, isBroken);
         }
         return null;
     }
@@ -773,6 +1024,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public String hmset(final String key, final Map<String, String> hash) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             String result = jedis.hmset(key, hash);
@@ -782,6 +1034,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("hmset", startNanos, isBroken);
         }
         return null;
     }
@@ -797,6 +1050,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public List<String> hmget(final String key, final String... fields) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             List<String> result = jedis.hmget(key, fields);
@@ -806,6 +1060,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("hmget", startNanos, isBroken);
         }
         return null;
     }
@@ -820,6 +1075,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Map<String, String> hgetall(final String key) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             Map<String, String> result = jedis.hgetAll(key);
@@ -829,6 +1085,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("hgetall", startNanos, isBroken);
         }
         return null;
     }
@@ -844,6 +1101,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Long hdel(final String key, final String... fields) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             Long result = jedis.hdel(key, fields);
@@ -853,6 +1111,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("hdel", startNanos, isBroken);
         }
         return null;
     }
@@ -869,6 +1128,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Long zadd(final String key, final double score, final String member) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             Long result = jedis.zadd(key, score, member);
@@ -878,6 +1138,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("zadd", startNanos, isBroken);
         }
         return null;
     }
@@ -893,6 +1154,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Long zadd(final String key, final Map<String, Double> scoreMembers) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             Long result = jedis.zadd(key, scoreMembers);
@@ -902,6 +1164,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("zadd", startNanos, isBroken);
         }
         return null;
     }
@@ -919,6 +1182,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Set<String> zrangeByScore(final String key, final double min, final double max) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             Set<String> result = jedis.zrangeByScore(key, min, max);
@@ -928,6 +1192,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("zrangeByScore", startNanos, isBroken);
         }
         return null;
     }
@@ -948,6 +1213,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
                                      final int offset, final int count) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             Set<String> result = jedis.zrangeByScore(key, min, max, offset, count);
@@ -957,6 +1223,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("zrangeByScore", startNanos, isBroken);
         }
         return null;
     }
@@ -973,6 +1240,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Set<String> zrange(final String key, final long start, final long end) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             Set<String> result = jedis.zrange(key, start, end);
@@ -982,6 +1250,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("zrange", startNanos, isBroken);
         }
         return null;
     }
@@ -997,6 +1266,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Long zrem(final String key, final String... members) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             Long result = jedis.zrem(key, members);
@@ -1006,6 +1276,32 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("zrem", startNanos, isBroken);
+        }
+        return null;
+    }
+
+    /**
+     * 获取ZSET中的元素个数
+     *
+     * @param key ZSET名字
+     * @return key不存在时返回0
+     */
+    @Override
+    public Long zcard(final String key) {
+        Jedis jedis = null;
+        boolean isBroken = false;
+        long startNanos = System.nanoTime();
+        try {
+            jedis = getJedis();
+            Long result = jedis.zcard(key);
+            return result;
+        } catch (Exception e) {
+            LOG.error(e.getLocalizedMessage(), e);
+            isBroken = true;
+        } finally {
+            release(jedis, isBroken);
+            redisMetrics.record("zcard", startNanos, isBroken);
         }
         return null;
     }
@@ -1021,6 +1317,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Double zscore(final String key, final String member) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             Double result = jedis.zscore(key, member);
@@ -1030,6 +1327,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("zscore", startNanos, isBroken);
         }
         return null;
     }
@@ -1046,6 +1344,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Double zincrby(final String key, final double score, final String member) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             Double result = jedis.zincrby(key, score, member);
@@ -1055,6 +1354,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("zincrby", startNanos, isBroken);
         }
         return null;
     }
@@ -1070,6 +1370,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Long expire(final String key, final int seconds) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             Long result = jedis.expire(key, seconds);
@@ -1079,6 +1380,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("expire", startNanos, isBroken);
         }
         return null;
     }
@@ -1093,6 +1395,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Long ttl(final String key) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             Long result = jedis.ttl(key);
@@ -1102,6 +1405,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("ttl", startNanos, isBroken);
         }
         return null;
     }
@@ -1115,6 +1419,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public void flashAll() {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             jedis.flushAll();
@@ -1123,6 +1428,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("flashAll", startNanos, isBroken);
         }
     }
 
@@ -1130,6 +1436,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
     public Long incr(String key) {
         Jedis jedis = null;
         boolean isBroken = false;
+        long startNanos = System.nanoTime();
         try {
             jedis = getJedis();
             return jedis.incr(key);
@@ -1138,6 +1445,7 @@ public class MQRedisDaoImpl implements MQRedisDao {
             isBroken = true;
         } finally {
             release(jedis, isBroken);
+            redisMetrics.record("incr", startNanos, isBroken);
         }
         return 0L;
     }
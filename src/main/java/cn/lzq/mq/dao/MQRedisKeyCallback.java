@@ -0,0 +1,17 @@
+package cn.lzq.mq.dao;
+
+import java.util.List;
+
+/**
+ * 逐批处理SCAN取出的key
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public interface MQRedisKeyCallback {
+
+    /**
+     * @param keys 一次SCAN返回的key，不为空；同一个key可能在不同批次中重复出现
+     */
+    void handle(List<String> keys);
+}
@@ -0,0 +1,300 @@
+package cn.lzq.mq.dao;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.apache.log4j.Logger;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * redis集群的slot分布，由CLUSTER SLOTS得到每个slot的主节点和从节点，每个节点一个连接池
+ * 1. slot分布保存在不可变的快照中，读取不加锁，刷新时整体替换
+ * 2. 定时刷新；收到MOVED时先修正该slot，再异步刷新整个分布
+ * 3. 不再出现在分布中的节点，刷新后关闭其连接池
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+class RedisClusterTopology {
+
+    private static final Logger LOG = Logger.getLogger(RedisClusterTopology.class);
+
+    static final int SLOT_COUNT = 16384;
+
+    private final Set<HostAndPort> seeds;
+
+    private final GenericObjectPoolConfig poolConfig;
+
+    private final int timeout;
+
+    private final String password;
+
+    private final RedisMetrics redisMetrics;
+
+    /**
+     * 所有节点的连接池，包括从节点
+     */
+    private final Map<HostAndPort, JedisPool> pools = new HashMap<HostAndPort, JedisPool>();
+
+    private volatile Slots slots = new Slots(new JedisPool[SLOT_COUNT], new JedisPool[SLOT_COUNT][]);
+
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "mq-redis-cluster-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * @param nodes             种子节点，逗号分隔的host:port，任意几个节点即可
+     * @param poolConfig        每个节点的连接池配置
+     * @param timeout           连接和读取超时，毫秒
+     * @param password          没有密码时为空
+     * @param refreshIntervalMs 定时刷新间隔，0表示只在MOVED和连接失败时刷新
+     * @param redisMetrics      输出每个节点连接池的连接数
+     */
+    RedisClusterTopology(String nodes, GenericObjectPoolConfig poolConfig, int timeout, String password,
+                         long refreshIntervalMs, RedisMetrics redisMetrics) {
+        this.seeds = new LinkedHashSet<HostAndPort>();
+        for (String node : StringUtils.split(nodes, ", ")) {
+            int colon = node.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("illegal redis cluster node: " + node);
+            }
+            seeds.add(new HostAndPort(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1))));
+        }
+        if (seeds.isEmpty()) {
+            throw new IllegalArgumentException("mq.redis.cluster.nodes is empty");
+        }
+        this.poolConfig = poolConfig;
+        this.timeout = timeout;
+        this.password = StringUtils.isEmpty(password) ? null : password;
+        this.redisMetrics = redisMetrics;
+
+        refresh();
+        if (refreshIntervalMs > 0) {
+            refresher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    refresh();
+                }
+            }, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * slot的主节点
+     *
+     * @param slot
+     * @return 没有节点负责该slot时返回null
+     */
+    JedisPool master(int slot) {
+        return slots.masters[slot];
+    }
+
+    /**
+     * 随机取slot的一个从节点
+     *
+     * @param slot
+     * @return 没有从节点时返回null
+     */
+    JedisPool replica(int slot) {
+        JedisPool[] replicas = slots.replicas[slot];
+        if (replicas == null || replicas.length == 0) {
+            return null;
+        }
+        return replicas.length == 1 ? replicas[0] : replicas[ThreadLocalRandom.current().nextInt(replicas.length)];
+    }
+
+    /**
+     * 所有主节点，用于SCAN、FLUSHALL等需要访问每个节点的操作
+     *
+     * @return
+     */
+    List<JedisPool> masters() {
+        return slots.masterList;
+    }
+
+    /**
+     * 节点的连接池，ASK重定向到分布中还没有的节点时创建
+     *
+     * @param node
+     * @return
+     */
+    synchronized JedisPool pool(HostAndPort node) {
+        JedisPool pool = pools.get(node);
+        if (pool == null) {
+            pool = new JedisPool(poolConfig, node.getHost(), node.getPort(), timeout, password);
+            pools.put(node, pool);
+            redisMetrics.registerPool(node.toString(), pool);
+        }
+        return pool;
+    }
+
+    /**
+     * 收到MOVED时修正slot的主节点，从节点在下次刷新后恢复，然后异步刷新整个分布
+     *
+     * @param slot
+     * @param node 新的主节点
+     */
+    synchronized void moved(int slot, HostAndPort node) {
+        Slots current = slots;
+        JedisPool[] masters = current.masters.clone();
+        JedisPool[][] replicas = current.replicas.clone();
+        masters[slot] = pool(node);
+        replicas[slot] = null;
+        slots = new Slots(masters, replicas);
+        refreshAsync();
+    }
+
+    /**
+     * 异步刷新，已有刷新在等待时不重复提交
+     */
+    void refreshAsync() {
+        if (refreshPending.compareAndSet(false, true)) {
+            try {
+                refresher.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        refreshPending.set(false);
+                        refresh();
+                    }
+                });
+            } catch (RuntimeException e) {
+                // 已关闭
+                refreshPending.set(false);
+            }
+        }
+    }
+
+    /**
+     * 依次向已知的主节点和种子节点查询CLUSTER SLOTS，用第一个成功的结果替换分布
+     */
+    synchronized void refresh() {
+        Set<HostAndPort> candidates = new LinkedHashSet<HostAndPort>();
+        for (Map.Entry<HostAndPort, JedisPool> entry : pools.entrySet()) {
+            if (slots.masterList.contains(entry.getValue())) {
+                candidates.add(entry.getKey());
+            }
+        }
+        candidates.addAll(seeds);
+
+        Exception lastError = null;
+        for (HostAndPort candidate : candidates) {
+            Jedis jedis = new Jedis(candidate.getHost(), candidate.getPort(), timeout);
+            try {
+                if (password != null) {
+                    jedis.auth(password);
+                }
+                slots = parse(candidate, jedis.clusterSlots());
+                closeRemovedPools();
+                return;
+            } catch (Exception e) {
+                lastError = e;
+            } finally {
+                jedis.close();
+            }
+        }
+        LOG.error("refresh redis cluster slots error, nodes: " + candidates, lastError);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Slots parse(HostAndPort queried, List<Object> slotInfos) {
+        JedisPool[] masters = new JedisPool[SLOT_COUNT];
+        JedisPool[][] replicas = new JedisPool[SLOT_COUNT][];
+        for (Object slotInfo : slotInfos) {
+            List<Object> info = (List<Object>) slotInfo;
+            int start = ((Long) info.get(0)).intValue();
+            int end = ((Long) info.get(1)).intValue();
+            JedisPool master = pool(node(queried, (List<Object>) info.get(2)));
+            JedisPool[] slotReplicas = new JedisPool[info.size() - 3];
+            for (int i = 3; i < info.size(); i++) {
+                slotReplicas[i - 3] = pool(node(queried, (List<Object>) info.get(i)));
+            }
+            for (int slot = start; slot <= end; slot++) {
+                masters[slot] = master;
+                replicas[slot] = slotReplicas;
+            }
+        }
+        return new Slots(masters, replicas);
+    }
+
+    /**
+     * 节点没有配置对外地址时CLUSTER SLOTS返回空host，此时与被查询的节点相同
+     */
+    private HostAndPort node(HostAndPort queried, List<Object> nodeInfo) {
+        String host = SafeEncoder.encode((byte[]) nodeInfo.get(0));
+        int port = ((Long) nodeInfo.get(1)).intValue();
+        return new HostAndPort(StringUtils.isEmpty(host) ? queried.getHost() : host, port);
+    }
+
+    private void closeRemovedPools() {
+        Set<JedisPool> inUse = new LinkedHashSet<JedisPool>(slots.masterList);
+        for (JedisPool[] replicas : slots.replicas) {
+            if (replicas != null) {
+                Collections.addAll(inUse, replicas);
+            }
+        }
+        List<HostAndPort> removed = new ArrayList<HostAndPort>();
+        for (Map.Entry<HostAndPort, JedisPool> entry : pools.entrySet()) {
+            if (!inUse.contains(entry.getValue())) {
+                removed.add(entry.getKey());
+            }
+        }
+        for (HostAndPort node : removed) {
+            LOG.info("redis cluster node removed: " + node);
+            redisMetrics.unregisterPool(node.toString());
+            pools.remove(node).close();
+        }
+    }
+
+    synchronized void close() {
+        refresher.shutdownNow();
+        for (Map.Entry<HostAndPort, JedisPool> entry : pools.entrySet()) {
+            redisMetrics.unregisterPool(entry.getKey().toString());
+            entry.getValue().close();
+        }
+        pools.clear();
+    }
+
+    private static class Slots {
+
+        private final JedisPool[] masters;
+
+        private final JedisPool[][] replicas;
+
+        private final List<JedisPool> masterList;
+
+        Slots(JedisPool[] masters, JedisPool[][] replicas) {
+            this.masters = masters;
+            this.replicas = replicas;
+            Set<JedisPool> distinct = new LinkedHashSet<JedisPool>();
+            for (JedisPool master : masters) {
+                if (master != null) {
+                    distinct.add(master);
+                }
+            }
+            this.masterList = Collections.unmodifiableList(new ArrayList<JedisPool>(distinct));
+        }
+    }
+}
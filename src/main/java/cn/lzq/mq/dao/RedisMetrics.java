@@ -0,0 +1,166 @@
+package cn.lzq.mq.dao;
+
+import cn.lzq.mq.util.LatencyHistogram;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisPool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * redis访问的监控指标，通过actuator的/metrics输出
+ * 1. 每个MQRedisDao方法的调用次数、失败次数和耗时百分位（含借用连接的时间）
+ * 2. 从连接池借用连接的等待时间百分位，归还的损坏连接数
+ * 3. 每个连接池的活跃、空闲、等待连接数
+ * 百分位按mq.redis.metrics.windowMs统计最近一个完整窗口，在读取指标时切换窗口
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class RedisMetrics implements PublicMetrics {
+
+    @Value("${mq.redis.metrics.enabled:true}")
+    private boolean enabled;
+
+    @Value("${mq.redis.metrics.windowMs:60000}")
+    private long windowMs;
+
+    private final ConcurrentMap<String, CommandStats> commands = new ConcurrentHashMap<String, CommandStats>();
+
+    private final CommandStats borrow = new CommandStats();
+
+    private final AtomicLong brokenCount = new AtomicLong();
+
+    private final ConcurrentMap<String, JedisPool> pools = new ConcurrentHashMap<String, JedisPool>();
+
+    private long windowStart;
+
+    /**
+     * 记录一次方法调用
+     *
+     * @param command    MQRedisDao的方法名
+     * @param startNanos System.nanoTime()取得的开始时间
+     * @param failed     是否失败
+     */
+    public void record(String command, long startNanos, boolean failed) {
+        if (!enabled) {
+            return;
+        }
+        CommandStats stats = commands.get(command);
+        if (stats == null) {
+            CommandStats created = new CommandStats();
+            stats = commands.putIfAbsent(command, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        stats.record(startNanos, failed);
+    }
+
+    /**
+     * 记录一次从连接池借用连接
+     *
+     * @param startNanos 开始借用的时间
+     * @param failed     没有借到连接
+     */
+    public void recordBorrow(long startNanos, boolean failed) {
+        if (enabled) {
+            borrow.record(startNanos, failed);
+        }
+    }
+
+    /**
+     * 记录一个损坏后被连接池销毁的连接
+     */
+    public void recordBroken() {
+        brokenCount.incrementAndGet();
+    }
+
+    /**
+     * 输出连接池的活跃、空闲、等待连接数
+     *
+     * @param name 单节点为default，集群为节点的host:port
+     * @param pool
+     */
+    public void registerPool(String name, JedisPool pool) {
+        pools.put(name, pool);
+    }
+
+    public void unregisterPool(String name) {
+        pools.remove(name);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now - windowStart >= windowMs) {
+                windowStart = now;
+                borrow.rollWindow();
+                for (CommandStats stats : commands.values()) {
+                    stats.rollWindow();
+                }
+            }
+            for (Map.Entry<String, CommandStats> entry : commands.entrySet()) {
+                entry.getValue().addMetrics("mq.redis.command." + entry.getKey(), metrics);
+            }
+            borrow.addMetrics("mq.redis.pool.borrow", metrics);
+        }
+        metrics.add(new Metric<Long>("mq.redis.pool.broken", brokenCount.get()));
+        for (Map.Entry<String, JedisPool> entry : pools.entrySet()) {
+            String prefix = "mq.redis.pool." + entry.getKey();
+            JedisPool pool = entry.getValue();
+            metrics.add(new Metric<Integer>(prefix + ".active", pool.getNumActive()));
+            metrics.add(new Metric<Integer>(prefix + ".idle", pool.getNumIdle()));
+            metrics.add(new Metric<Integer>(prefix + ".waiters", pool.getNumWaiters()));
+        }
+        return metrics;
+    }
+
+    private static class CommandStats {
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private final LongAdder errors = new LongAdder();
+
+        private LatencyHistogram.Snapshot windowEnd = LatencyHistogram.Snapshot.empty();
+
+        private LatencyHistogram.Snapshot window = LatencyHistogram.Snapshot.empty();
+
+        void record(long startNanos, boolean failed) {
+            latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+            if (failed) {
+                errors.increment();
+            }
+        }
+
+        void rollWindow() {
+            LatencyHistogram.Snapshot current = latency.snapshot();
+            window = current.minus(windowEnd);
+            windowEnd = current;
+        }
+
+        void addMetrics(String prefix, List<Metric<?>> metrics) {
+            metrics.add(new Metric<Long>(prefix + ".count", latency.getTotalCount()));
+            metrics.add(new Metric<Long>(prefix + ".errors", errors.sum()));
+            metrics.add(new Metric<Long>(prefix + ".window.count", window.getCount()));
+            metrics.add(new Metric<Long>(prefix + ".avgMicros", window.getMean()));
+            metrics.add(new Metric<Long>(prefix + ".p50Micros", window.getValueAtPercentile(50)));
+            metrics.add(new Metric<Long>(prefix + ".p99Micros", window.getValueAtPercentile(99)));
+            metrics.add(new Metric<Long>(prefix + ".p999Micros", window.getValueAtPercentile(99.9)));
+            metrics.add(new Metric<Long>(prefix + ".maxMicros", window.getMax()));
+        }
+    }
+}
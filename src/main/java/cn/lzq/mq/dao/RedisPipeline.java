@@ -0,0 +1,147 @@
+package cn.lzq.mq.dao;
+
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 批量命令，方法与MQRedisDao对应，返回的Response在MQRedisDao.executePipelined返回后才能调用get()
+ * 只在RedisPipelineCallback中使用，不能跨线程，不能在回调结束后继续加入命令
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public class RedisPipeline {
+
+    private static final String NX = "NX";
+
+    private static final String EX = "EX";
+
+    private final Pipeline pipeline;
+
+    RedisPipeline(Pipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public Response<String> getString(String key) {
+        return pipeline.get(key);
+    }
+
+    public Response<List<String>> mget(String... keys) {
+        return pipeline.mget(keys);
+    }
+
+    public Response<String> setString(String key, String value) {
+        return pipeline.set(key, value);
+    }
+
+    public Response<String> setStringEx(String key, int seconds, String value) {
+        return pipeline.setex(key, seconds, value);
+    }
+
+    /**
+     * key不存在时设值
+     *
+     * @param key
+     * @param value
+     * @param seconds 单位秒，大于0时设置有效时间
+     * @return 设值成功为"OK"，未设值为null
+     */
+    public Response<String> setnx(String key, String value, int seconds) {
+        if (seconds > 0) {
+            return pipeline.set(key, value, NX, EX, seconds);
+        }
+        return pipeline.set(key, value, NX);
+    }
+
+    public Response<Boolean> existKey(String key) {
+        return pipeline.exists(key);
+    }
+
+    public Response<Long> del(String... keys) {
+        return pipeline.del(keys);
+    }
+
+    public Response<Long> expire(String key, int seconds) {
+        return pipeline.expire(key, seconds);
+    }
+
+    public Response<Long> expireAtMillisTimestamp(String key, long timeMillis) {
+        return pipeline.pexpireAt(key, timeMillis);
+    }
+
+    public Response<Long> ttl(String key) {
+        return pipeline.ttl(key);
+    }
+
+    public Response<Long> incr(String key) {
+        return pipeline.incr(key);
+    }
+
+    public Response<Long> incrBy(String key, long increment) {
+        return pipeline.incrBy(key, increment);
+    }
+
+    public Response<Long> lpush(String key, String... strings) {
+        return pipeline.lpush(key, strings);
+    }
+
+    public Response<Long> rpush(String key, String... strings) {
+        return pipeline.rpush(key, strings);
+    }
+
+    public Response<Long> llen(String key) {
+        return pipeline.llen(key);
+    }
+
+    public Response<Long> hset(String key, String field, String value) {
+        return pipeline.hset(key, field, value);
+    }
+
+    public Response<String> hget(String key, String field) {
+        return pipeline.hget(key, field);
+    }
+
+    public Response<String> hmset(String key, Map<String, String> hash) {
+        return pipeline.hmset(key, hash);
+    }
+
+    public Response<Map<String, String>> hgetall(String key) {
+        return pipeline.hgetAll(key);
+    }
+
+    public Response<Long> hincrBy(String key, String field, long increment) {
+        return pipeline.hincrBy(key, field, increment);
+    }
+
+    public Response<Long> hdel(String key, String... fields) {
+        return pipeline.hdel(key, fields);
+    }
+
+    public Response<Long> zadd(String key, double score, String member) {
+        return pipeline.zadd(key, score, member);
+    }
+
+    public Response<Long> zadd(String key, Map<String, Double> scoreMembers) {
+        return pipeline.zadd(key, scoreMembers);
+    }
+
+    public Response<Set<String>> zrangeByScore(String key, double min, double max, int offset, int count) {
+        return pipeline.zrangeByScore(key, min, max, offset, count);
+    }
+
+    public Response<Long> zrem(String key, String... members) {
+        return pipeline.zrem(key, members);
+    }
+
+    public Response<Double> zscore(String key, String member) {
+        return pipeline.zscore(key, member);
+    }
+
+    public Response<Double> zincrby(String key, double score, String member) {
+        return pipeline.zincrby(key, score, member);
+    }
+}
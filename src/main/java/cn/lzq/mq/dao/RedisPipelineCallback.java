@@ -0,0 +1,17 @@
+package cn.lzq.mq.dao;
+
+/**
+ * 在一个连接上批量发送redis命令
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public interface RedisPipelineCallback {
+
+    /**
+     * 向pipeline中加入命令，命令的结果在executePipelined返回后才能取得
+     *
+     * @param pipeline
+     */
+    void doInPipeline(RedisPipeline pipeline);
+}
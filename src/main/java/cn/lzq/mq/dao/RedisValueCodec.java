@@ -0,0 +1,224 @@
+package cn.lzq.mq.dao;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.util.ThreadLocalCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * redis对象值编解码，用于setObj/getObj
+ * 1. 格式：1字节标识 + 1字节格式（json/jdk，最高位表示已压缩）+ [压缩时4字节原长度] + 内容
+ * 2. 默认按jdk格式写入且不压缩，此时不加标识，写入的就是原来的java序列化字节，未升级的服务可以读取；
+ *    json格式（mq.redis.valueCodec.format=json）和压缩（mq.redis.valueCodec.compressThreshold）需要所有读取方升级后再打开
+ * 3. json格式用fastjson写UTF-8字节，读取时按getObj传入的类型解析，打开前确认缓存的对象满足：
+ *    a. 有无参构造和setter（或public字段），否则读取时无法赋值
+ *    b. 字段声明为接口或父类（如Object、List<Base>）时按声明类型解析，子类特有的数据丢失
+ *    c. 不通过getObj而是直接调用unserialize(byte[])时没有目标类型，得到的是JSONObject/JSONArray
+ * 4. 打开压缩后，超过compressThreshold的内容用Deflater(BEST_SPEED)压缩
+ * 5. 读取时支持所有格式，没有标识的值按原来的java序列化读取，切换格式不需要清理已有缓存
+ * 缓冲区、Deflater、Inflater按线程复用
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class RedisValueCodec {
+
+    private static final byte MAGIC = (byte) 0xC7;
+
+    private static final byte FORMAT_JSON = 1;
+
+    private static final byte FORMAT_JDK = 2;
+
+    private static final byte COMPRESSED = (byte) 0x80;
+
+    /**
+     * 线程复用的缓冲区超过该大小后不再保留
+     */
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private static final ThreadLocal<Buffers> BUFFERS = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    /**
+     * 写入格式：jdk或json，读取时支持所有格式，json格式的限制见类注释
+     */
+    @Value("${mq.redis.valueCodec.format:jdk}")
+    private String format;
+
+    /**
+     * 内容超过该字节数时压缩，0表示不压缩；压缩后的值带标识，所有读取方升级后才能打开
+     */
+    @Value("${mq.redis.valueCodec.compressThreshold:0}")
+    private int compressThreshold;
+
+    private byte writeFormat;
+
+    public RedisValueCodec() {
+    }
+
+    public RedisValueCodec(String format, int compressThreshold) {
+        this.format = format;
+        this.compressThreshold = compressThreshold;
+        init();
+    }
+
+    @PostConstruct
+    public void init() {
+        if ("json".equalsIgnoreCase(format)) {
+            writeFormat = FORMAT_JSON;
+        } else if ("jdk".equalsIgnoreCase(format)) {
+            writeFormat = FORMAT_JDK;
+        } else {
+            throw new IllegalArgumentException("unknown mq.redis.valueCodec.format: " + format);
+        }
+    }
+
+    /**
+     * 编码对象
+     *
+     * @param object
+     * @return
+     * @throws IOException
+     */
+    public byte[] encode(Object object) throws IOException {
+        byte[] content;
+        if (writeFormat == FORMAT_JSON) {
+            content = JSON.toJSONBytes(object);
+        } else {
+            Buffers buffers = BUFFERS.get();
+            ObjectOutputStream oos = new ObjectOutputStream(buffers.output());
+            oos.writeObject(object);
+            oos.flush();
+            content = buffers.out.toByteArray();
+        }
+
+        if (compressThreshold <= 0 || content.length <= compressThreshold) {
+            if (writeFormat == FORMAT_JDK) {
+                // 不压缩的jdk格式不加标识，与原来的java序列化完全相同，未升级的读取方也能读取
+                return content;
+            }
+            byte[] value = new byte[content.length + 2];
+            value[0] = MAGIC;
+            value[1] = writeFormat;
+            System.arraycopy(content, 0, value, 2, content.length);
+            return value;
+        }
+        return compress(writeFormat, content);
+    }
+
+    /**
+     * 解码对象
+     *
+     * @param value redis中的值
+     * @param type  json格式解析的目标类型，jdk格式忽略
+     * @return
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public Object decode(byte[] value, Class<?> type) throws IOException, ClassNotFoundException {
+        if (value.length < 2 || value[0] != MAGIC) {
+            // 原来java序列化写入的值
+            return new ObjectInputStream(new ByteArrayInputStream(value)).readObject();
+        }
+        byte flags = value[1];
+        byte[] content;
+        int offset;
+        int length;
+        if ((flags & COMPRESSED) != 0) {
+            content = decompress(value);
+            offset = 0;
+            length = content.length;
+        } else {
+            content = value;
+            offset = 2;
+            length = value.length - 2;
+        }
+
+        byte contentFormat = (byte) (flags & ~COMPRESSED);
+        if (contentFormat == FORMAT_JSON) {
+            return JSON.parseObject(content, offset, length, ThreadLocalCache.getUTF8Decoder(),
+                    type == null ? Object.class : type);
+        }
+        if (contentFormat == FORMAT_JDK) {
+            return new ObjectInputStream(new ByteArrayInputStream(content, offset, length)).readObject();
+        }
+        throw new IOException("unknown redis value format: " + contentFormat);
+    }
+
+    private byte[] compress(byte format, byte[] content) {
+        Buffers buffers = BUFFERS.get();
+        ByteArrayOutputStream out = buffers.output();
+        out.write(MAGIC);
+        out.write(format | COMPRESSED);
+        out.write(content.length >>> 24);
+        out.write(content.length >>> 16);
+        out.write(content.length >>> 8);
+        out.write(content.length);
+
+        Deflater deflater = buffers.deflater;
+        deflater.reset();
+        deflater.setInput(content);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffers.chunk);
+            out.write(buffers.chunk, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] decompress(byte[] value) throws IOException {
+        int length = ((value[2] & 0xFF) << 24) | ((value[3] & 0xFF) << 16) | ((value[4] & 0xFF) << 8) | (value[5] & 0xFF);
+        byte[] content = new byte[length];
+        Inflater inflater = BUFFERS.get().inflater;
+        inflater.reset();
+        inflater.setInput(value, 6, value.length - 6);
+        try {
+            int n = 0;
+            while (n < length) {
+                int read = inflater.inflate(content, n, length - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("truncated redis value, expected " + length + " bytes, got " + n);
+                }
+                n += read;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt redis value", e);
+        }
+        return content;
+    }
+
+    private static class Buffers {
+
+        private ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+
+        private final byte[] chunk = new byte[4096];
+
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        private final Inflater inflater = new Inflater();
+
+        ByteArrayOutputStream output() {
+            if (out.size() > MAX_RETAINED_BUFFER) {
+                out = new ByteArrayOutputStream(1024);
+            } else {
+                out.reset();
+            }
+            return out;
+        }
+    }
+}
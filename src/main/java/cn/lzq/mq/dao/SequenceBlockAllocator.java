@@ -0,0 +1,84 @@
+package cn.lzq.mq.dao;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Oracle序列号段分配器，一次从序列取blockSize个值放在本地，取号时不访问数据库
+ * 取号走无锁路径，只有号段用完时才加锁去数据库补充
+ * 未使用的号（如应用重启）会丢失，序列本身允许出现空洞
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public class SequenceBlockAllocator {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final String sql;
+
+    private final int blockSize;
+
+    private volatile IdBlock current = new IdBlock(new long[0]);
+
+    public SequenceBlockAllocator(JdbcTemplate jdbcTemplate, String sequenceName, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.sql = "select " + sequenceName + ".nextval from dual connect by level <= ?";
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * 取下一个id
+     *
+     * @return
+     * @throws IllegalStateException 序列没有返回任何值
+     */
+    public long next() {
+        while (true) {
+            IdBlock block = current;
+            long id = block.next();
+            if (id > 0) {
+                return id;
+            }
+            refill(block);
+        }
+    }
+
+    private synchronized void refill(IdBlock exhausted) {
+        // 其他线程已经补充过
+        if (current != exhausted) {
+            return;
+        }
+        List<Long> values = jdbcTemplate.queryForList(sql, Long.class, blockSize);
+        // 空号段会让next()一直重试
+        if (values.isEmpty()) {
+            throw new IllegalStateException("sequence returned no values: " + sql);
+        }
+        long[] ids = new long[values.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = values.get(i);
+        }
+        current = new IdBlock(ids);
+    }
+
+    private static class IdBlock {
+
+        private final long[] ids;
+
+        private final AtomicInteger cursor = new AtomicInteger();
+
+        IdBlock(long[] ids) {
+            this.ids = ids;
+        }
+
+        long next() {
+            int index = cursor.getAndIncrement();
+            return index < ids.length ? ids[index] : -1L;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package cn.lzq.mq.dao;
 
+import cn.lzq.mq.common.MQMessage;
+
 import java.util.List;
 import java.util.Map;
 
@@ -22,13 +24,70 @@ public interface TMessageDao {
 
     boolean deleteByStatus(long id);
 
+    /**
+     * 批量删除，一次数据库交互
+     *
+     * @param ids
+     * @return 删除条数，驱动没有返回行数时为-1
+     */
+    int deleteBatch(List<Long> ids);
+
+    /**
+     * 批量把消息恢复为待发送状态（status = 0）并清除认领租约，由补偿任务重新发送
+     *
+     * @param ids
+     * @return 更新条数，驱动没有返回行数时为-1
+     */
+    int resetStatusBatch(List<Long> ids);
+
     long insert(String message, Long createdOn, String exchangeName, String routing, String queueName, String type);
 
     long insert(String messageId, String message, Long createdOn, String exchangeName, String routing, String queueName, String type);
 
     long insert(String message, Long createdOn, String exchangeName, String routing, String queueName, String type, String appType);
 
+    /**
+     * 批量写入消息表，一次数据库交互，消息id需事先通过nextValue分配
+     *
+     * @param messages
+     * @return 写入条数，驱动没有返回行数时为-1
+     */
+    int batchInsert(List<MQMessage> messages);
+
     List<Map<String, Object>> queryAllMessage();
 
+    /**
+     * 一次性加载全部待发送消息，积压较多时占用大量内存，使用claimPendingMessages分页认领代替
+     */
+    @Deprecated
     List<Map<String, Object>> queryAllMessageByStatus();
+
+    /**
+     * 按id升序认领一批id大于afterId的待发送消息：SELECT ... FOR UPDATE SKIP LOCKED取出没有租约或租约已过期的消息，写入租约后提交
+     * 多个补偿线程/节点同时认领时各自取到不同的消息；认领的节点在租约内未删除消息（如节点宕机）时，租约到期后由其他节点重新认领
+     * 需要的表结构：alter table mq_message add RELAY_LEASE_UNTIL TIMESTAMP（sql/mq_message_relay_lease.sql）
+     *
+     * @param afterId       上一页认领到的最后一条消息的id，第一页传0
+     * @param limit         最多认领的条数
+     * @param createdBefore 只认领CREATED_ON小于该时间戳（毫秒）的消息
+     * @param leaseMs       租约时长，需要大于等待broker确认的超时时间
+     * @return 认领到的消息，事务已提交
+     */
+    List<MQMessage> claimPendingMessages(long afterId, int limit, long createdBefore, long leaseMs);
+
+    /**
+     * 按id认领消息，用于重发已知发送失败的消息；已删除、已被认领的消息不返回
+     *
+     * @param ids     不超过1000个
+     * @param leaseMs 租约时长
+     * @return 认领到的消息，事务已提交
+     */
+    List<MQMessage> claimMessages(List<Long> ids, long leaseMs);
+
+    /**
+     * 检查消息表是否已有认领租约列RELAY_LEASE_UNTIL，升级脚本见sql/mq_message_relay_lease.sql
+     *
+     * @return 没有该列时返回false；数据库暂时不可用等其他错误时按已有处理，返回true
+     */
+    boolean hasRelayLeaseColumn();
 }
@@ -1,11 +1,27 @@
 package cn.lzq.mq.dao;
 
 
+import cn.lzq.mq.common.MQMessage;
+import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.BadSqlGrammarException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -15,14 +31,33 @@ import java.util.Map;
 @Repository
 public class TMessageDaoImpl implements TMessageDao {
 
+    private static final Logger LOG = Logger.getLogger(TMessageDaoImpl.class);
+
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    /**
+     * 每次从序列预取的id个数
+     */
+    @Value("${mq.outbox.sequenceBlockSize:100}")
+    private int sequenceBlockSize;
+
+    /**
+     * 分页读取消息表时每次从数据库取回的行数
+     */
+    @Value("${mq.relay.fetchSize:200}")
+    private int fetchSize;
+
+    private SequenceBlockAllocator idAllocator;
+
+    @PostConstruct
+    public void init() {
+        idAllocator = new SequenceBlockAllocator(jdbcTemplate, "seq_mq_message", sequenceBlockSize);
+    }
+
     @Override
     public long nextValue() {
-        String sql = "select seq_mq_message.nextval from dual";
-        long value = jdbcTemplate.queryForObject(sql, BigDecimal.class).longValue();
-        return value;
+        return idAllocator.next();
     }
 
     @Override
@@ -67,6 +102,43 @@ public class TMessageDaoImpl implements TMessageDao {
         return rows == 1;
     }
 
+    @Override
+    public int deleteBatch(List<Long> ids) {
+        String sql = "delete from mq_message where id = ? ";
+        return affectedRows(jdbcTemplate.batchUpdate(sql, toBatchArgs(ids)));
+    }
+
+    @Override
+    public int resetStatusBatch(List<Long> ids) {
+        String sql = "UPDATE mq_message SET status = 0, RELAY_LEASE_UNTIL = null where id = ? ";
+        return affectedRows(jdbcTemplate.batchUpdate(sql, toBatchArgs(ids)));
+    }
+
+    /**
+     * 批量语句的影响行数之和
+     *
+     * @param counts batchUpdate的返回值
+     * @return 驱动对任一语句返回SUCCESS_NO_INFO时行数未知，返回-1
+     */
+    private int affectedRows(int[] counts) {
+        int rows = 0;
+        for (int count : counts) {
+            if (count == Statement.SUCCESS_NO_INFO) {
+                return -1;
+            }
+            rows += count;
+        }
+        return rows;
+    }
+
+    private List<Object[]> toBatchArgs(List<Long> ids) {
+        List<Object[]> batchArgs = new ArrayList<Object[]>(ids.size());
+        for (Long id : ids) {
+            batchArgs.add(new Object[]{id});
+        }
+        return batchArgs;
+    }
+
     @Override
     public long insert(String message, Long createdOn, String exchangeName, String routing, String queueName, String type) {
         long id = nextValue();
@@ -91,15 +163,120 @@ public class TMessageDaoImpl implements TMessageDao {
         return id;
     }
 
+    @Override
+    public int batchInsert(List<MQMessage> messages) {
+        String sql = "insert into mq_message(id, message_id, message, CREATED_ON, EXCHANGE_NAME, ROUTING_KEY, QUEUE_NAME, EXCHANGE_TYPE, APP_TYPE) values(?,?,?,?,?,?,?,?,?)";
+        List<Object[]> batchArgs = new ArrayList<Object[]>(messages.size());
+        for (MQMessage message : messages) {
+            batchArgs.add(new Object[]{message.getId(), message.getMessageId(), message.getMessage(), message.getCreatedOn(),
+                    message.getExchangeName(), message.getRoutingKey(), message.getQueueName(), message.getExchangeType(), message.getAppType()});
+        }
+        return affectedRows(jdbcTemplate.batchUpdate(sql, batchArgs));
+    }
+
     @Override
     public List<Map<String, Object>> queryAllMessage() {
         String sql = " select * from mq_message ";
         return jdbcTemplate.queryForList(sql);
     }
 
+    @Deprecated
     @Override
     public List<Map<String, Object>> queryAllMessageByStatus() {
         String sql = " select * from mq_message where status = 0 ";
         return jdbcTemplate.queryForList(sql);
     }
+
+    @Transactional
+    @Override
+    public List<MQMessage> claimPendingMessages(final long afterId, final int limit, final long createdBefore, long leaseMs) {
+        // 被其他节点/线程锁定的行直接跳过，只取前limit行，只有取到的行被锁定
+        // 按主键id > ?范围扫描，不用对全部待发送消息排序，每页的扫描量与积压量无关
+        final String sql = "select id, message_id, message, EXCHANGE_NAME, ROUTING_KEY from mq_message "
+                + "where id > ? and status = 0 and CREATED_ON < ? and (RELAY_LEASE_UNTIL is null or RELAY_LEASE_UNTIL < systimestamp) "
+                + "order by id for update skip locked";
+        List<MQMessage> claimed = jdbcTemplate.query(new PreparedStatementCreator() {
+            @Override
+            public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+                PreparedStatement ps = con.prepareStatement(sql);
+                ps.setLong(1, afterId);
+                ps.setLong(2, createdBefore);
+                ps.setFetchSize(Math.min(fetchSize, limit));
+                return ps;
+            }
+        }, new ResultSetExtractor<List<MQMessage>>() {
+            @Override
+            public List<MQMessage> extractData(ResultSet rs) throws SQLException {
+                List<MQMessage> messages = new ArrayList<MQMessage>(limit);
+                while (messages.size() < limit && rs.next()) {
+                    messages.add(toPendingMessage(rs));
+                }
+                return messages;
+            }
+        });
+        lease(claimed, leaseMs);
+        return claimed;
+    }
+
+    @Transactional
+    @Override
+    public List<MQMessage> claimMessages(List<Long> ids, long leaseMs) {
+        if (ids.isEmpty()) {
+            return new ArrayList<MQMessage>();
+        }
+        StringBuilder sql = new StringBuilder("select id, message_id, message, EXCHANGE_NAME, ROUTING_KEY from mq_message "
+                + "where status = 0 and (RELAY_LEASE_UNTIL is null or RELAY_LEASE_UNTIL < systimestamp) and id in (");
+        for (int i = 0; i < ids.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(") for update skip locked");
+        List<MQMessage> claimed = jdbcTemplate.query(sql.toString(), ids.toArray(), new RowMapper<MQMessage>() {
+            @Override
+            public MQMessage mapRow(ResultSet rs, int rowNum) throws SQLException {
+                return toPendingMessage(rs);
+            }
+        });
+        lease(claimed, leaseMs);
+        return claimed;
+    }
+
+    @Override
+    public boolean hasRelayLeaseColumn() {
+        try {
+            jdbcTemplate.queryForList("select RELAY_LEASE_UNTIL from mq_message where 1 = 0");
+            return true;
+        } catch (BadSqlGrammarException e) {
+            // ORA-00904: invalid identifier
+            return false;
+        } catch (DataAccessException e) {
+            LOG.warn("check mq_message.RELAY_LEASE_UNTIL error", e);
+            return true;
+        }
+    }
+
+    /**
+     * 写入认领租约，租约使用数据库时间，不受各节点时钟偏差影响
+     */
+    private void lease(List<MQMessage> claimed, long leaseMs) {
+        if (claimed.isEmpty()) {
+            return;
+        }
+        String sql = "UPDATE mq_message SET RELAY_LEASE_UNTIL = systimestamp + numtodsinterval(?, 'SECOND') where id = ? ";
+        List<Object[]> batchArgs = new ArrayList<Object[]>(claimed.size());
+        BigDecimal leaseSeconds = BigDecimal.valueOf(leaseMs, 3);
+        for (MQMessage message : claimed) {
+            batchArgs.add(new Object[]{leaseSeconds, message.getId()});
+        }
+        jdbcTemplate.batchUpdate(sql, batchArgs);
+    }
+
+    private MQMessage toPendingMessage(ResultSet rs) throws SQLException {
+        MQMessage message = new MQMessage();
+        message.setId(rs.getLong("id"));
+        message.setMessageId(rs.getString("message_id"));
+        message.setMessage(rs.getString("message"));
+        message.setExchangeName(rs.getString("EXCHANGE_NAME"));
+        message.setRoutingKey(rs.getString("ROUTING_KEY"));
+        return message;
+    }
 }
@@ -0,0 +1,131 @@
+package cn.lzq.mq.demo.codec;
+
+import cn.lzq.mq.service.JsonPayloadCodec;
+import cn.lzq.mq.service.PayloadCodec;
+import cn.lzq.mq.service.SmilePayloadCodec;
+import cn.lzq.mq.util.RandomStringUtil;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 订单事件消息的编解码对比：消息体大小、编码耗时、解码耗时
+ * legacy为原来Jackson2JsonMessageConverter发送String的格式（json字符串字面量），只测量解码
+ * 参数：消息数 每次测量的轮数，默认 1000 200
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public class PayloadCodecBenchmark {
+
+    public static void main(String[] argv) throws Exception {
+        int messages = argv.length > 0 ? Integer.parseInt(argv[0]) : 1000;
+        int rounds = argv.length > 1 ? Integer.parseInt(argv[1]) : 200;
+
+        List<String> orderEvents = new ArrayList<String>(messages);
+        for (int i = 0; i < messages; i++) {
+            orderEvents.add(orderEvent(i));
+        }
+
+        List<byte[]> legacy = new ArrayList<byte[]>(messages);
+        for (String orderEvent : orderEvents) {
+            legacy.add(JSON.toJSONString(orderEvent).getBytes("UTF-8"));
+        }
+
+        PayloadCodec json = new JsonPayloadCodec();
+        PayloadCodec smile = new SmilePayloadCodec();
+        // 预热，不输出
+        for (int i = 0; i < 3; i++) {
+            measure("legacy", json, orderEvents, legacy, rounds, false);
+            measure("json", json, orderEvents, null, rounds, false);
+            measure("smile", smile, orderEvents, null, rounds, false);
+        }
+        measure("legacy", json, orderEvents, legacy, rounds, true);
+        measure("json", json, orderEvents, null, rounds, true);
+        measure("smile", smile, orderEvents, null, rounds, true);
+    }
+
+    /**
+     * @param legacyBodies 不为null时只测量解码原来格式的消息体
+     */
+    private static void measure(String name, PayloadCodec codec, List<String> orderEvents, List<byte[]> legacyBodies,
+                                int rounds, boolean print) throws Exception {
+        List<byte[]> bodies = legacyBodies;
+        long encodeNanos = 0;
+        if (bodies == null) {
+            bodies = new ArrayList<byte[]>(orderEvents.size());
+            long start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                bodies.clear();
+                for (String orderEvent : orderEvents) {
+                    bodies.add(codec.encode(orderEvent));
+                }
+            }
+            encodeNanos = (System.nanoTime() - start) / ((long) rounds * orderEvents.size());
+        }
+
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            decodeAll(codec, bodies, JSONObject.class);
+        }
+        long decodeJsonObjectNanos = (System.nanoTime() - start) / ((long) rounds * orderEvents.size());
+
+        start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            decodeAll(codec, bodies, Map.class);
+        }
+        long decodeMapNanos = (System.nanoTime() - start) / ((long) rounds * orderEvents.size());
+
+        if (print) {
+            System.out.println(" [x] " + name + " avg size: " + avgSize(bodies) + " bytes, encode: "
+                    + (legacyBodies == null ? encodeNanos + " ns/msg" : "-") + ", decode JSONObject: "
+                    + decodeJsonObjectNanos + " ns/msg, decode Map: " + decodeMapNanos + " ns/msg");
+        }
+    }
+
+    private static int decodeAll(PayloadCodec codec, List<byte[]> bodies, Class<?> type) throws Exception {
+        int fields = 0;
+        for (byte[] body : bodies) {
+            Map<?, ?> decoded = codec.decode(body, type);
+            fields += decoded.size();
+        }
+        return fields;
+    }
+
+    private static long avgSize(List<byte[]> bodies) {
+        long total = 0;
+        for (byte[] body : bodies) {
+            total += body.length;
+        }
+        return total / bodies.size();
+    }
+
+    /**
+     * 与MQController发送的订单消息同构，补充订单事件常见的字段
+     */
+    private static String orderEvent(int i) {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("id", 1508000000000L + i);
+        jsonObject.put("orderNum", RandomStringUtil.getRandomString(12));
+        jsonObject.put("event", "ORDER_CREATE");
+        jsonObject.put("customerId", 100000 + i % 5000);
+        jsonObject.put("status", 1);
+        jsonObject.put("amount", 199.5 + i % 100);
+        jsonObject.put("createdOn", 1508000000000L + i * 1000L);
+        JSONArray items = new JSONArray();
+        for (int j = 0; j < 1 + i % 4; j++) {
+            JSONObject item = new JSONObject();
+            item.put("skuId", 300000 + (i * 7 + j) % 10000);
+            item.put("name", "商品" + j);
+            item.put("quantity", 1 + j);
+            item.put("price", 49.9 + j);
+            items.add(item);
+        }
+        jsonObject.put("items", items);
+        return jsonObject.toJSONString();
+    }
+}
@@ -0,0 +1,76 @@
+package cn.lzq.mq.demo.ordered;
+
+import cn.lzq.mq.service.KeyedLaneExecutor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按key保序消费的吞吐对比：单通道（现在顺序队列的做法）与多通道
+ * 每条消息模拟一次阻塞的业务处理，同时校验同一个key的消息是否按发送顺序处理
+ * 参数：通道数 消息数 key数 每条处理耗时(微秒)，默认 32 20000 1000 1000
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public class OrderedLaneBenchmark {
+
+    public static void main(String[] argv) throws Exception {
+        int lanes = argv.length > 0 ? Integer.parseInt(argv[0]) : 32;
+        int messages = argv.length > 1 ? Integer.parseInt(argv[1]) : 20000;
+        int keys = argv.length > 2 ? Integer.parseInt(argv[2]) : 1000;
+        long workMicros = argv.length > 3 ? Long.parseLong(argv[3]) : 1000;
+
+        // 预热
+        run(lanes, messages / 10, keys, workMicros);
+
+        long single = run(1, messages, keys, workMicros);
+        long multi = run(lanes, messages, keys, workMicros);
+        System.out.println(" [x] speedup: " + String.format("%.1f", (double) multi / single) + "x");
+    }
+
+    private static long run(int lanes, int messages, int keys, final long workMicros) throws InterruptedException {
+        KeyedLaneExecutor executor = new KeyedLaneExecutor(lanes, "benchmark-lane-");
+        final ConcurrentMap<String, AtomicLong> lastSeq = new ConcurrentHashMap<String, AtomicLong>();
+        final AtomicLong outOfOrder = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(messages);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            final String key = "order-" + (i % keys);
+            final long seq = i / keys;
+            executor.execute(key, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        TimeUnit.MICROSECONDS.sleep(workMicros);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    AtomicLong last = lastSeq.get(key);
+                    if (last == null) {
+                        lastSeq.putIfAbsent(key, new AtomicLong(-1));
+                        last = lastSeq.get(key);
+                    }
+                    if (last.getAndSet(seq) != seq - 1) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsedNanos = System.nanoTime() - start;
+        executor.shutdown();
+        executor.awaitTermination(1000);
+
+        long throughput = messages * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        System.out.println(" [x] lanes: " + lanes + ", messages: " + messages + ", keys: " + keys
+                + ", elapsed: " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms, throughput: " + throughput
+                + " msg/s, out of order: " + outOfOrder.get());
+        return throughput;
+    }
+}
@@ -0,0 +1,137 @@
+package cn.lzq.mq.demo.outbox;
+
+import cn.lzq.mq.dao.SequenceBlockAllocator;
+import cn.lzq.mq.util.RandomStringUtil;
+import com.alibaba.druid.pool.DruidDataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 消息表写入吞吐对比：逐条（每条消息先取一次序列再单条insert）与批量（号段取id，一个事务的消息一次batchUpdate）
+ * 多个线程并发写入，每个事务写入若干条消息，结束后删除写入的测试数据
+ * 参数：jdbc url 用户名 密码 线程数 每个线程的事务数 每个事务的消息数 号段大小，
+ * 默认 jdbc:oracle:thin:@localhost:1521:orcl mq mq 8 200 10 100
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public class OutboxInsertBenchmark {
+
+    private static final String INSERT_SQL = "insert into mq_message(id, message_id, message, CREATED_ON, EXCHANGE_NAME, "
+            + "ROUTING_KEY, QUEUE_NAME, EXCHANGE_TYPE, APP_TYPE) values(?,?,?,?,?,?,?,?,?)";
+
+    private static final String EXCHANGE = "benchmark.outbox";
+
+    public static void main(String[] argv) throws Exception {
+        String url = argv.length > 0 ? argv[0] : "jdbc:oracle:thin:@localhost:1521:orcl";
+        String username = argv.length > 1 ? argv[1] : "mq";
+        String password = argv.length > 2 ? argv[2] : "mq";
+        int threads = argv.length > 3 ? Integer.parseInt(argv[3]) : 8;
+        int transactions = argv.length > 4 ? Integer.parseInt(argv[4]) : 200;
+        int messagesPerTransaction = argv.length > 5 ? Integer.parseInt(argv[5]) : 10;
+        int blockSize = argv.length > 6 ? Integer.parseInt(argv[6]) : 100;
+
+        DruidDataSource dataSource = new DruidDataSource();
+        dataSource.setUrl(url);
+        dataSource.setUsername(username);
+        dataSource.setPassword(password);
+        dataSource.setMaxActive(threads);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        SequenceBlockAllocator allocator = new SequenceBlockAllocator(jdbcTemplate, "seq_mq_message", blockSize);
+
+        try {
+            // 预热
+            run("single", false, jdbcTemplate, transactionTemplate, allocator, threads, transactions / 10, messagesPerTransaction);
+            run("batch", true, jdbcTemplate, transactionTemplate, allocator, threads, transactions / 10, messagesPerTransaction);
+
+            long single = run("single", false, jdbcTemplate, transactionTemplate, allocator, threads, transactions, messagesPerTransaction);
+            long batch = run("batch", true, jdbcTemplate, transactionTemplate, allocator, threads, transactions, messagesPerTransaction);
+            System.out.println(" [x] speedup: " + String.format("%.1f", (double) batch / single) + "x");
+        } finally {
+            int deleted = jdbcTemplate.update("delete from mq_message where EXCHANGE_NAME = ?", EXCHANGE);
+            System.out.println(" [x] deleted " + deleted + " benchmark rows");
+            dataSource.close();
+        }
+    }
+
+    private static long run(String name, final boolean batch, final JdbcTemplate jdbcTemplate,
+                            final TransactionTemplate transactionTemplate, final SequenceBlockAllocator allocator,
+                            int threads, final int transactions, final int messagesPerTransaction) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicLong errors = new AtomicLong();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < transactions; i++) {
+                            try {
+                                transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                                    @Override
+                                    protected void doInTransactionWithoutResult(TransactionStatus status) {
+                                        if (batch) {
+                                            insertBatch(jdbcTemplate, allocator, messagesPerTransaction);
+                                        } else {
+                                            insertOneByOne(jdbcTemplate, messagesPerTransaction);
+                                        }
+                                    }
+                                });
+                            } catch (RuntimeException e) {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "benchmark-" + name + "-" + t).start();
+        }
+        done.await();
+        long elapsedNanos = System.nanoTime() - start;
+
+        long messages = (long) threads * transactions * messagesPerTransaction;
+        long throughput = messages * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        System.out.println(" [x] " + name + " threads: " + threads + ", messages: " + messages
+                + ", elapsed: " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms, throughput: " + throughput
+                + " msg/s, failed transactions: " + errors.get());
+        return throughput;
+    }
+
+    /**
+     * 原来的写法：每条消息两次数据库交互
+     */
+    private static void insertOneByOne(JdbcTemplate jdbcTemplate, int count) {
+        for (int i = 0; i < count; i++) {
+            long id = jdbcTemplate.queryForObject("select seq_mq_message.nextval from dual", Long.class);
+            jdbcTemplate.update(INSERT_SQL, row(id));
+        }
+    }
+
+    /**
+     * TMessageDaoImpl.batchInsert的写法：号段取id，一次batchUpdate
+     */
+    private static void insertBatch(JdbcTemplate jdbcTemplate, SequenceBlockAllocator allocator, int count) {
+        List<Object[]> batchArgs = new ArrayList<Object[]>(count);
+        for (int i = 0; i < count; i++) {
+            batchArgs.add(row(allocator.next()));
+        }
+        jdbcTemplate.batchUpdate(INSERT_SQL, batchArgs);
+    }
+
+    private static Object[] row(long id) {
+        return new Object[]{id, UUID.randomUUID().toString(), RandomStringUtil.getRandomString(200),
+                System.currentTimeMillis(), EXCHANGE, "benchmark", "", "direct", ""};
+    }
+}
@@ -0,0 +1,213 @@
+package cn.lzq.mq.demo.outbox;
+
+import cn.lzq.mq.common.MQMessage;
+import cn.lzq.mq.dao.TMessageDao;
+import cn.lzq.mq.dao.TMessageDaoImpl;
+import cn.lzq.mq.util.RandomStringUtil;
+import com.alibaba.druid.pool.DruidDataSource;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 补偿任务按线程数扩展的吞吐：1、2、4...个线程同时通过TMessageDao.claimPendingMessages认领消息并发送
+ * 每个线程一个channel，发送一页后等待broker确认再批量删除，同时统计被重复发送的消息数
+ * 需要oracle（mq_message表含RELAY_LEASE_UNTIL列）和本机的rabbitmq
+ * 参数：jdbc url 用户名 密码 消息数 每页条数 最大线程数，
+ * 默认 jdbc:oracle:thin:@localhost:1521:orcl mq mq 20000 200 16
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public class OutboxRelayBenchmark {
+
+    private static final String QUEUE_NAME = "benchmark.outbox.relay";
+
+    private static final long LEASE_MS = 60000;
+
+    public static void main(String[] argv) throws Exception {
+        System.setProperty("benchmark.url", argv.length > 0 ? argv[0] : "jdbc:oracle:thin:@localhost:1521:orcl");
+        System.setProperty("benchmark.username", argv.length > 1 ? argv[1] : "mq");
+        System.setProperty("benchmark.password", argv.length > 2 ? argv[2] : "mq");
+        int messages = argv.length > 3 ? Integer.parseInt(argv[3]) : 20000;
+        int pageSize = argv.length > 4 ? Integer.parseInt(argv[4]) : 200;
+        int maxWorkers = argv.length > 5 ? Integer.parseInt(argv[5]) : 16;
+        System.setProperty("benchmark.maxActive", String.valueOf(maxWorkers + 1));
+
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext(BenchmarkConfig.class);
+        TMessageDao tMessageDao = context.getBean(TMessageDao.class);
+
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost("localhost");
+        Connection connection = factory.newConnection();
+        Channel admin = connection.createChannel();
+        admin.queueDeclare(QUEUE_NAME, false, false, false, null);
+
+        try {
+            // 预热
+            insert(tMessageDao, messages / 10);
+            run(tMessageDao, connection, 1, pageSize, messages / 10);
+
+            long single = 0;
+            for (int workers = 1; workers <= maxWorkers; workers *= 2) {
+                insert(tMessageDao, messages);
+                long throughput = run(tMessageDao, connection, workers, pageSize, messages);
+                if (workers == 1) {
+                    single = throughput;
+                }
+                System.out.println(" [x] speedup: " + String.format("%.1f", (double) throughput / single) + "x");
+            }
+        } finally {
+            admin.queueDelete(QUEUE_NAME);
+            connection.close();
+            context.close();
+        }
+    }
+
+    private static void insert(TMessageDao tMessageDao, int count) {
+        List<MQMessage> batch = new ArrayList<MQMessage>(1000);
+        for (int i = 0; i < count; i++) {
+            MQMessage message = new MQMessage();
+            message.setId(tMessageDao.nextValue());
+            message.setMessageId(UUID.randomUUID().toString());
+            message.setMessage(RandomStringUtil.getRandomString(200));
+            // 早于补偿任务的宽限时间，可以立即认领
+            message.setCreatedOn(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1));
+            message.setExchangeName("");
+            message.setRoutingKey(QUEUE_NAME);
+            message.setExchangeType("direct");
+            batch.add(message);
+            if (batch.size() == 1000) {
+                tMessageDao.batchInsert(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            tMessageDao.batchInsert(batch);
+        }
+    }
+
+    private static long run(final TMessageDao tMessageDao, final Connection connection, int workers, final int pageSize,
+                            int messages) throws InterruptedException {
+        final Set<Long> sentIds = ConcurrentHashMap.newKeySet();
+        final AtomicLong duplicates = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(workers);
+
+        long start = System.nanoTime();
+        for (int w = 0; w < workers; w++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Channel channel = null;
+                    try {
+                        channel = connection.createChannel();
+                        channel.confirmSelect();
+                        long afterId = 0;
+                        List<MQMessage> claimed;
+                        while (!(claimed = tMessageDao.claimPendingMessages(afterId, pageSize, Long.MAX_VALUE, LEASE_MS)).isEmpty()) {
+                            afterId = claimed.get(claimed.size() - 1).getId();
+                            List<Long> ids = new ArrayList<Long>(claimed.size());
+                            for (MQMessage message : claimed) {
+                                channel.basicPublish(message.getExchangeName(), message.getRoutingKey(), null,
+                                        message.getMessage().getBytes("UTF-8"));
+                                ids.add(message.getId());
+                                if (!sentIds.add(message.getId())) {
+                                    duplicates.incrementAndGet();
+                                }
+                            }
+                            channel.waitForConfirmsOrDie(TimeUnit.SECONDS.toMillis(30));
+                            tMessageDao.deleteBatch(ids);
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                        e.printStackTrace();
+                    } finally {
+                        try {
+                            if (channel != null) {
+                                channel.close();
+                            }
+                        } catch (Exception ignore) {
+                        }
+                        done.countDown();
+                    }
+                }
+            }, "benchmark-relay-" + w).start();
+        }
+        done.await();
+        long elapsedNanos = System.nanoTime() - start;
+
+        long throughput = sentIds.size() * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        System.out.println(" [x] workers: " + workers + ", messages: " + messages + ", sent: " + sentIds.size()
+                + ", elapsed: " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms, throughput: " + throughput
+                + " msg/s, duplicates: " + duplicates.get() + ", failed workers: " + errors.get());
+        return throughput;
+    }
+
+    /**
+     * 不加@Configuration，避免被应用的组件扫描加载
+     */
+    @EnableTransactionManagement
+    public static class BenchmarkConfig {
+
+        @Value("${benchmark.url}")
+        private String url;
+
+        @Value("${benchmark.username}")
+        private String username;
+
+        @Value("${benchmark.password}")
+        private String password;
+
+        @Value("${benchmark.maxActive}")
+        private int maxActive;
+
+        @Bean
+        public static PropertySourcesPlaceholderConfigurer placeholderConfigurer() {
+            return new PropertySourcesPlaceholderConfigurer();
+        }
+
+        @Bean(destroyMethod = "close")
+        public DruidDataSource dataSource() {
+            DruidDataSource dataSource = new DruidDataSource();
+            dataSource.setUrl(url);
+            dataSource.setUsername(username);
+            dataSource.setPassword(password);
+            dataSource.setMaxActive(maxActive);
+            return dataSource;
+        }
+
+        @Bean
+        public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+
+        @Bean
+        public PlatformTransactionManager transactionManager(DataSource dataSource) {
+            return new DataSourceTransactionManager(dataSource);
+        }
+
+        @Bean
+        public TMessageDao tMessageDao() {
+            return new TMessageDaoImpl();
+        }
+    }
+}
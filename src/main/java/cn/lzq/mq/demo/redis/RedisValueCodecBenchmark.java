@@ -0,0 +1,253 @@
+package cn.lzq.mq.demo.redis;
+
+import cn.lzq.mq.dao.RedisValueCodec;
+import cn.lzq.mq.util.RandomStringUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MQRedisDao.setObj/getObj的值编解码对比：存储字节数、编码耗时、解码耗时
+ * legacy为原来的ObjectOutputStream/ObjectInputStream
+ * 参数：每种对象的数量 每次测量的轮数，默认 1000 100
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public class RedisValueCodecBenchmark {
+
+    public static void main(String[] argv) throws Exception {
+        int count = argv.length > 0 ? Integer.parseInt(argv[0]) : 1000;
+        int rounds = argv.length > 1 ? Integer.parseInt(argv[1]) : 100;
+
+        RedisValueCodec jdk = new RedisValueCodec("jdk", 0);
+        RedisValueCodec json = new RedisValueCodec("json", 0);
+        RedisValueCodec jsonCompressed = new RedisValueCodec("json", 1024);
+
+        for (int itemCount : new int[]{2, 60}) {
+            List<OrderCache> orders = new ArrayList<OrderCache>(count);
+            for (int i = 0; i < count; i++) {
+                orders.add(order(i, itemCount));
+            }
+            // 预热，不输出
+            for (int i = 0; i < 3; i++) {
+                measureLegacy(orders, rounds, false);
+                measure("jdk", jdk, orders, rounds, false);
+                measure("json", json, orders, rounds, false);
+                measure("json+deflate", jsonCompressed, orders, rounds, false);
+            }
+            System.out.println(" [x] order with " + itemCount + " items");
+            measureLegacy(orders, rounds, true);
+            measure("jdk", jdk, orders, rounds, true);
+            measure("json", json, orders, rounds, true);
+            measure("json+deflate", jsonCompressed, orders, rounds, true);
+        }
+    }
+
+    private static void measureLegacy(List<OrderCache> orders, int rounds, boolean print) throws Exception {
+        List<byte[]> values = new ArrayList<byte[]>(orders.size());
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            values.clear();
+            for (OrderCache order : orders) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                ObjectOutputStream oos = new ObjectOutputStream(baos);
+                oos.writeObject(order);
+                values.add(baos.toByteArray());
+            }
+        }
+        long encodeNanos = (System.nanoTime() - start) / ((long) rounds * orders.size());
+
+        long items = 0;
+        start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (byte[] value : values) {
+                items += ((OrderCache) new ObjectInputStream(new ByteArrayInputStream(value)).readObject()).getItems().size();
+            }
+        }
+        long decodeNanos = (System.nanoTime() - start) / ((long) rounds * orders.size());
+        print(print, "legacy", values, encodeNanos, decodeNanos, items);
+    }
+
+    private static void measure(String name, RedisValueCodec codec, List<OrderCache> orders, int rounds, boolean print)
+            throws Exception {
+        List<byte[]> values = new ArrayList<byte[]>(orders.size());
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            values.clear();
+            for (OrderCache order : orders) {
+                values.add(codec.encode(order));
+            }
+        }
+        long encodeNanos = (System.nanoTime() - start) / ((long) rounds * orders.size());
+
+        long items = 0;
+        start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (byte[] value : values) {
+                items += ((OrderCache) codec.decode(value, OrderCache.class)).getItems().size();
+            }
+        }
+        long decodeNanos = (System.nanoTime() - start) / ((long) rounds * orders.size());
+        print(print, name, values, encodeNanos, decodeNanos, items);
+    }
+
+    private static void print(boolean print, String name, List<byte[]> values, long encodeNanos, long decodeNanos, long items) {
+        if (!print || items == 0) {
+            return;
+        }
+        long total = 0;
+        for (byte[] value : values) {
+            total += value.length;
+        }
+        System.out.println(" [x] " + name + " avg size: " + total / values.size() + " bytes, encode: " + encodeNanos
+                + " ns/op, decode: " + decodeNanos + " ns/op");
+    }
+
+    private static OrderCache order(int i, int itemCount) {
+        OrderCache order = new OrderCache();
+        order.setId(1508000000000L + i);
+        order.setOrderNum(RandomStringUtil.getRandomString(12));
+        order.setCustomerId(100000 + i % 5000);
+        order.setStatus(1);
+        order.setAmount(new BigDecimal("199.50").add(BigDecimal.valueOf(i % 100)));
+        order.setCreatedOn(1508000000000L + i * 1000L);
+        List<OrderItem> items = new ArrayList<OrderItem>(itemCount);
+        for (int j = 0; j < itemCount; j++) {
+            OrderItem item = new OrderItem();
+            item.setSkuId(300000 + (i * 7 + j) % 10000);
+            item.setName("商品" + j);
+            item.setQuantity(1 + j % 3);
+            item.setPrice(new BigDecimal("49.90"));
+            items.add(item);
+        }
+        order.setItems(items);
+        return order;
+    }
+
+    public static class OrderCache implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private long id;
+
+        private String orderNum;
+
+        private int customerId;
+
+        private int status;
+
+        private BigDecimal amount;
+
+        private long createdOn;
+
+        private List<OrderItem> items;
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public String getOrderNum() {
+            return orderNum;
+        }
+
+        public void setOrderNum(String orderNum) {
+            this.orderNum = orderNum;
+        }
+
+        public int getCustomerId() {
+            return customerId;
+        }
+
+        public void setCustomerId(int customerId) {
+            this.customerId = customerId;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public void setStatus(int status) {
+            this.status = status;
+        }
+
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        public void setAmount(BigDecimal amount) {
+            this.amount = amount;
+        }
+
+        public long getCreatedOn() {
+            return createdOn;
+        }
+
+        public void setCreatedOn(long createdOn) {
+            this.createdOn = createdOn;
+        }
+
+        public List<OrderItem> getItems() {
+            return items;
+        }
+
+        public void setItems(List<OrderItem> items) {
+            this.items = items;
+        }
+    }
+
+    public static class OrderItem implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private int skuId;
+
+        private String name;
+
+        private int quantity;
+
+        private BigDecimal price;
+
+        public int getSkuId() {
+            return skuId;
+        }
+
+        public void setSkuId(int skuId) {
+            this.skuId = skuId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        public void setQuantity(int quantity) {
+            this.quantity = quantity;
+        }
+
+        public BigDecimal getPrice() {
+            return price;
+        }
+
+        public void setPrice(BigDecimal price) {
+            this.price = price;
+        }
+    }
+}
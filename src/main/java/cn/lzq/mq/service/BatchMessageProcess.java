@@ -0,0 +1,25 @@
+package cn.lzq.mq.service;
+
+import cn.lzq.mq.common.Action;
+
+import java.util.List;
+
+/**
+ * 批量消费的业务处理
+ *
+ * @param <T> 消息类型，与MessageProcess相同
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public interface BatchMessageProcess<T> {
+
+    /**
+     * 处理一批消息
+     *
+     * @param messages 消息内容，顺序与投递顺序一致
+     * @return 每条消息的处理结果，与messages一一对应；返回null或条数不一致时整批按RETRY处理
+     * @throws Exception 抛出异常时整批按REJECT处理
+     */
+    List<Action> process(List<T> messages) throws Exception;
+}
@@ -0,0 +1,143 @@
+package cn.lzq.mq.service;
+
+import cn.lzq.mq.dao.MQRedisDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 布隆过滤器去重，适用于消息量很大的队列，内存按窗口固定，不再每条消息一个redis key
+ * 1. 处理成功后写入当前窗口的过滤器，处理前查询当前和上一个窗口
+ * 2. 过滤器判定不存在的消息一定没处理过；判定可能存在时不直接丢弃，改用精确去重的SET NX EX（有效期60秒）再判断一次，
+ *    只有key已存在的才按重复消息确认，误判的消息仍会被处理；redis key只在可能存在时写入，数量约为 重复消息数+误判数
+ * 3. 过滤器命中但精确判断通过的消息按新消息处理，因此跨实例的重复投递可能多消费一次（本实例内由LocalDedupCache拦截），
+ *    与精确去重一样保证不丢消息
+ * 4. 过滤器未命中的消息处理前不登记，同一条消息的两次投递同时在处理时都会被处理
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+@ConditionalOnProperty(name = "mq.consumer.dedup.mode", havingValue = "bloom")
+public class BloomMessageDeduplicator implements MessageDeduplicator, PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BloomMessageDeduplicator.class);
+
+    @Autowired
+    private MQRedisDao redisDao;
+
+    /**
+     * local:进程内位图，redis:redis位图，多实例共享
+     */
+    @Value("${mq.consumer.dedup.bloom.storage:redis}")
+    private String storage;
+
+    /**
+     * 每个窗口预期处理的消息数，超过后误判率上升
+     */
+    @Value("${mq.consumer.dedup.bloom.expectedInsertions:1000000}")
+    private long expectedInsertions;
+
+    @Value("${mq.consumer.dedup.bloom.fpp:0.000001}")
+    private double fpp;
+
+    @Value("${mq.consumer.dedup.bloom.windowSeconds:60}")
+    private int windowSeconds;
+
+    private WindowedBloomFilter filter;
+
+    private final AtomicLong checkCount = new AtomicLong();
+
+    private final AtomicLong probableHitCount = new AtomicLong();
+
+    private final AtomicLong duplicateCount = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        long windowMillis = windowSeconds * 1000L;
+        if ("local".equalsIgnoreCase(storage)) {
+            filter = new LocalWindowedBloomFilter(expectedInsertions, fpp, windowMillis);
+        } else {
+            filter = new RedisWindowedBloomFilter(redisDao, expectedInsertions, fpp, windowMillis);
+        }
+    }
+
+    @Override
+    public boolean tryAcquire(String key, String messageId) {
+        return tryAcquire(Collections.singletonList(key), Collections.singletonList(messageId)).get(0);
+    }
+
+    @Override
+    public List<Boolean> tryAcquire(List<String> keys, List<String> messageIds) {
+        List<Boolean> hits = filter.mightContain(keys);
+        List<Boolean> acquired = new ArrayList<Boolean>(hits.size());
+        List<Integer> hitIndexes = new ArrayList<Integer>();
+        for (int i = 0; i < hits.size(); i++) {
+            acquired.add(!hits.get(i));
+            if (hits.get(i)) {
+                hitIndexes.add(i);
+            }
+        }
+        checkCount.addAndGet(keys.size());
+        if (hitIndexes.isEmpty()) {
+            return acquired;
+        }
+
+        // 可能存在的消息用精确去重再判断一次，一次访问redis
+        probableHitCount.addAndGet(hitIndexes.size());
+        List<String> hitKeys = new ArrayList<String>(hitIndexes.size());
+        List<String> hitMessageIds = new ArrayList<String>(hitIndexes.size());
+        for (Integer i : hitIndexes) {
+            hitKeys.add(keys.get(i));
+            hitMessageIds.add(messageIds.get(i));
+        }
+        List<Long> results = redisDao.setnx(hitKeys, hitMessageIds, RedisMessageDeduplicator.DEDUP_EXPIRE_SECONDS);
+        for (int j = 0; j < hitIndexes.size(); j++) {
+            if (results.get(j) != 0) {
+                acquired.set(hitIndexes.get(j), true);
+            } else {
+                duplicateCount.incrementAndGet();
+                LOG.debug("duplicate message confirmed, key: " + hitKeys.get(j));
+            }
+        }
+        return acquired;
+    }
+
+    @Override
+    public void complete(List<String> keys) {
+        if (!keys.isEmpty()) {
+            filter.put(keys);
+        }
+    }
+
+    @Override
+    public void release(String key) {
+        // 过滤器命中的消息处理前写入了精确去重的key，撤销后重试时不会被当作重复消息；未命中的消息没有key，删除无影响
+        redisDao.del(key);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+        metrics.add(new Metric<Long>("mq.consumer.dedup.bloom.checks", checkCount.get()));
+        metrics.add(new Metric<Long>("mq.consumer.dedup.bloom.probableHits", probableHitCount.get()));
+        metrics.add(new Metric<Long>("mq.consumer.dedup.bloom.duplicates", duplicateCount.get()));
+        if (filter != null) {
+            metrics.add(new Metric<Long>("mq.consumer.dedup.bloom.bitsPerWindow", filter.getBits()));
+            metrics.add(new Metric<Integer>("mq.consumer.dedup.bloom.hashes", filter.getHashes()));
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,52 @@
+package cn.lzq.mq.service;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.AbstractMessageConverter;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * 按PayloadCodecRegistry编解码的消息转换器，所有RabbitTemplate共用
+ * 发送时按配置的格式编码并设置content-type，接收时按消息的content-type解码
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class CodecMessageConverter extends AbstractMessageConverter {
+
+    @Autowired
+    private PayloadCodecRegistry payloadCodecRegistry;
+
+    @Override
+    protected Message createMessage(Object object, MessageProperties messageProperties) {
+        PayloadCodec codec = payloadCodecRegistry.getProducerCodec();
+        byte[] body;
+        try {
+            body = codec.encode(object);
+        } catch (IOException e) {
+            throw new MessageConversionException("encode message error, content type: " + codec.getContentType(), e);
+        }
+        messageProperties.setContentType(codec.getContentType());
+        messageProperties.setContentLength(body.length);
+        return new Message(body, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) {
+        byte[] body = message.getBody();
+        if (body == null || body.length == 0) {
+            return null;
+        }
+        String contentType = message.getMessageProperties().getContentType();
+        try {
+            return payloadCodecRegistry.getCodec(contentType).decode(body, Object.class);
+        } catch (IOException e) {
+            throw new MessageConversionException("decode message error, content type: " + contentType, e);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package cn.lzq.mq.service;
+
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.ChannelAwareMessageListener;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消费者数量自动伸缩
+ * 1. 定时查询队列积压数（被动声明队列），结合每条消息的平均处理耗时估算当前消费者数量清空积压所需时间
+ * 2. 超过targetDrainSeconds时增加消费者，远低于时减少，连续多次满足条件才调整，调整后重新计数，避免来回抖动
+ * 3. 机器负载（load average / CPU核数）超过maxLoadPerCpu时不再增加，并逐步减少消费者
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class ConsumerAutoscaler implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConsumerAutoscaler.class);
+
+    @Autowired
+    private ConnectionFactory connectionFactory;
+
+    @Value("${mq.consumer.elastic.intervalMs:5000}")
+    private long intervalMs;
+
+    /**
+     * 期望清空积压的时间
+     */
+    @Value("${mq.consumer.elastic.targetDrainSeconds:10}")
+    private double targetDrainSeconds;
+
+    /**
+     * 连续多少次需要扩容才扩容
+     */
+    @Value("${mq.consumer.elastic.scaleUpTicks:2}")
+    private int scaleUpTicks;
+
+    /**
+     * 连续多少次需要缩容才缩容
+     */
+    @Value("${mq.consumer.elastic.scaleDownTicks:6}")
+    private int scaleDownTicks;
+
+    @Value("${mq.consumer.elastic.maxLoadPerCpu:0.9}")
+    private double maxLoadPerCpu;
+
+    private final ConcurrentMap<String, ElasticQueue> queues = new ConcurrentHashMap<String, ElasticQueue>();
+
+    private final OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("mq-consumer-autoscaler-"));
+
+    private RabbitAdmin rabbitAdmin;
+
+    @PostConstruct
+    public void init() {
+        rabbitAdmin = new RabbitAdmin(connectionFactory);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (ElasticQueue queue : queues.values()) {
+                    try {
+                        adjust(queue);
+                    } catch (Exception e) {
+                        LOG.error("autoscale consumers error, queue: " + queue.queueName, e);
+                    }
+                }
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * 登记需要自动伸缩的队列，返回的监听器统计每条消息的处理耗时
+     *
+     * @param queueName
+     * @param container    未启动的容器，消费者数量从minConsumers开始
+     * @param listener     业务监听器
+     * @param minConsumers
+     * @param maxConsumers
+     * @return 需要设置到容器上的监听器
+     */
+    public ChannelAwareMessageListener register(String queueName, SimpleMessageListenerContainer container,
+                                                final ChannelAwareMessageListener listener, int minConsumers, int maxConsumers) {
+        final ElasticQueue queue = new ElasticQueue(queueName, container, minConsumers, Math.max(minConsumers, maxConsumers));
+        container.setConcurrentConsumers(queue.consumers);
+        queues.put(queueName, queue);
+        return new ChannelAwareMessageListener() {
+            @Override
+            public void onMessage(Message message, Channel channel) throws Exception {
+                long start = System.nanoTime();
+                try {
+                    listener.onMessage(message, channel);
+                } finally {
+                    queue.record(System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+    public void unregister(String queueName) {
+        queues.remove(queueName);
+    }
+
+    private void adjust(ElasticQueue queue) {
+        Properties properties = rabbitAdmin.getQueueProperties(queue.queueName);
+        if (properties == null) {
+            return;
+        }
+        long depth = ((Number) properties.get(RabbitAdmin.QUEUE_MESSAGE_COUNT)).longValue();
+        queue.depth = depth;
+        double latencySeconds = queue.avgLatencyNanos / 1e9;
+        double loadPerCpu = operatingSystem.getSystemLoadAverage() / operatingSystem.getAvailableProcessors();
+        boolean overloaded = loadPerCpu > maxLoadPerCpu;
+
+        int current = queue.consumers;
+        // 按当前平均耗时，清空积压需要的消费者数量；还没有耗时数据时只要有积压就扩容
+        int desired;
+        if (depth == 0) {
+            desired = queue.minConsumers;
+        } else if (latencySeconds <= 0) {
+            desired = current + 1;
+        } else {
+            desired = (int) Math.ceil(depth * latencySeconds / targetDrainSeconds);
+        }
+
+        if (desired > current && !overloaded && current < queue.maxConsumers) {
+            queue.downTicks = 0;
+            if (++queue.upTicks >= scaleUpTicks) {
+                // 每次最多翻倍
+                resize(queue, Math.min(queue.maxConsumers, Math.min(desired, current * 2)), depth, latencySeconds, loadPerCpu);
+            }
+        } else if ((desired < current || overloaded) && current > queue.minConsumers) {
+            queue.upTicks = 0;
+            if (++queue.downTicks >= scaleDownTicks || overloaded) {
+                // 每次只减少一个，消费者停止时要等正在处理的消息完成
+                resize(queue, current - 1, depth, latencySeconds, loadPerCpu);
+            }
+        } else {
+            queue.upTicks = 0;
+            queue.downTicks = 0;
+        }
+    }
+
+    private void resize(ElasticQueue queue, int consumers, long depth, double latencySeconds, double loadPerCpu) {
+        LOG.info("resize consumers, queue: " + queue.queueName + ", " + queue.consumers + " -> " + consumers
+                + ", depth: " + depth + ", latency: " + latencySeconds + "s, load/cpu: " + loadPerCpu);
+        queue.container.setConcurrentConsumers(consumers);
+        queue.consumers = consumers;
+        queue.upTicks = 0;
+        queue.downTicks = 0;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+        for (ElasticQueue queue : queues.values()) {
+            String prefix = "mq.consumer.elastic." + queue.queueName;
+            metrics.add(new Metric<Integer>(prefix + ".consumers", queue.consumers));
+            metrics.add(new Metric<Long>(prefix + ".depth", queue.depth));
+            metrics.add(new Metric<Long>(prefix + ".latency.avgMicros", TimeUnit.NANOSECONDS.toMicros(queue.avgLatencyNanos)));
+        }
+        return metrics;
+    }
+
+    private static class ElasticQueue {
+
+        private final String queueName;
+
+        private final SimpleMessageListenerContainer container;
+
+        private final int minConsumers;
+
+        private final int maxConsumers;
+
+        private volatile int consumers;
+
+        private volatile long depth;
+
+        /**
+         * 处理耗时的指数移动平均（纳秒），近似值
+         */
+        private volatile long avgLatencyNanos;
+
+        private int upTicks;
+
+        private int downTicks;
+
+        ElasticQueue(String queueName, SimpleMessageListenerContainer container, int minConsumers, int maxConsumers) {
+            this.queueName = queueName;
+            this.container = container;
+            this.minConsumers = minConsumers;
+            this.maxConsumers = maxConsumers;
+            this.consumers = minConsumers;
+        }
+
+        void record(long nanos) {
+            long avg = avgLatencyNanos;
+            avgLatencyNanos = avg == 0 ? nanos : (avg * 15 + nanos) / 16;
+        }
+    }
+}
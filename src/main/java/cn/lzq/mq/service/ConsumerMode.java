@@ -0,0 +1,15 @@
+package cn.lzq.mq.service;
+
+/**
+ * 消费者容器的消费方式，决定运行中允许的调整
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public enum ConsumerMode {
+    SIMPLE,     // 消费者线程上逐条处理，可以调整消费者数量和预取数
+    ELASTIC,    // 消费者数量由ConsumerAutoscaler调整，可以调整预取数
+    BATCH,      // 批量处理，预取数不小于每批条数
+    OFFLOADED,  // 交给处理线程，在途消息窗口在启动时固定，不能调整消费者数量和预取数
+    ORDERED,    // 单个消费者按key分道处理，在途消息窗口在启动时固定，不能调整消费者数量和预取数
+}
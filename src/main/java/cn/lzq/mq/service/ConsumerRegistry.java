@@ -0,0 +1,232 @@
+package cn.lzq.mq.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 消费者容器登记，按队列名保存MessageConsumer启动的容器
+ * 1. 同一个队列只启动一个容器，重复调用consume不会增加消费者
+ * 2. 运行时调整消费者数量、预取数，暂停/恢复消费
+ * 3. 应用关闭时先停止所有容器，等待正在处理的消息处理完成，异步处理的容器先取消消费者再等待在途消息
+ * 4. 队列专用的处理线程池通过addStopHook登记，停止容器后关闭，单独停止一个队列时不会遗留线程
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class ConsumerRegistry implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConsumerRegistry.class);
+
+    @Autowired
+    private ConsumerAutoscaler consumerAutoscaler;
+
+    /**
+     * 停止容器时等待正在处理的消息的最长时间
+     */
+    @Value("${mq.consumer.shutdownTimeoutMs:30000}")
+    private long shutdownTimeoutMs;
+
+    private final ConcurrentMap<String, ConsumerEntry> consumers = new ConcurrentHashMap<String, ConsumerEntry>();
+
+    /**
+     * 队列是否已有消费者容器
+     *
+     * @param queueName
+     * @return
+     */
+    public boolean contains(String queueName) {
+        return consumers.containsKey(queueName);
+    }
+
+    /**
+     * 登记容器，队列已有容器时不登记，调用方不应启动该容器
+     *
+     * @param queueName
+     * @param container
+     * @param minPrefetch 预取数下限，批量消费为每批条数
+     * @param mode        消费方式，决定能否调整消费者数量和预取数
+     * @return 是否登记成功
+     */
+    public boolean register(String queueName, SimpleMessageListenerContainer container, int minPrefetch, ConsumerMode mode) {
+        container.setShutdownTimeout(shutdownTimeoutMs);
+        if (consumers.putIfAbsent(queueName, new ConsumerEntry(container, minPrefetch, mode)) != null) {
+            LOG.info("consumer already started, queue: " + queueName);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 登记停止容器后执行的清理，如关闭队列专用的处理线程池，在register成功之后调用
+     *
+     * @param queueName
+     * @param stopHook  在容器停止后执行，应自行限制等待时间
+     */
+    public void addStopHook(String queueName, Runnable stopHook) {
+        getEntry(queueName).stopHooks.add(stopHook);
+    }
+
+    /**
+     * 调整消费者数量，立即生效
+     * 弹性容器由ConsumerAutoscaler调整；异步处理和顺序消费的在途消息窗口在启动时固定，顺序消费只能有一个消费者
+     *
+     * @param queueName
+     * @param concurrentConsumers
+     */
+    public void resize(String queueName, int concurrentConsumers) {
+        ConsumerEntry entry = getEntry(queueName);
+        if (entry.mode == ConsumerMode.ELASTIC) {
+            throw new IllegalStateException("consumers of queue " + queueName + " are managed by autoscaler");
+        }
+        if (entry.mode == ConsumerMode.OFFLOADED || entry.mode == ConsumerMode.ORDERED) {
+            throw new IllegalStateException("consumers of " + entry.mode + " queue " + queueName + " can not be resized");
+        }
+        if (concurrentConsumers < 1) {
+            throw new IllegalArgumentException("concurrentConsumers must be positive");
+        }
+        entry.container.setConcurrentConsumers(concurrentConsumers);
+        LOG.info("resize consumers, queue: " + queueName + ", consumers: " + concurrentConsumers);
+    }
+
+    /**
+     * 调整预取数，预取数只在消费者建立时设置，运行中的容器会重启一次
+     * 异步处理和顺序消费的在途消息窗口按启动时的预取数固定，不能调整
+     *
+     * @param queueName
+     * @param prefetchCount
+     */
+    public synchronized void setPrefetch(String queueName, int prefetchCount) {
+        ConsumerEntry entry = getEntry(queueName);
+        if (entry.mode == ConsumerMode.OFFLOADED || entry.mode == ConsumerMode.ORDERED) {
+            throw new IllegalStateException("prefetch of " + entry.mode + " queue " + queueName + " can not be changed");
+        }
+        entry.container.setPrefetchCount(Math.max(prefetchCount, entry.minPrefetch));
+        if (entry.container.isRunning()) {
+            entry.container.stop();
+            entry.container.start();
+        }
+        LOG.info("set prefetch, queue: " + queueName + ", prefetch: " + Math.max(prefetchCount, entry.minPrefetch));
+    }
+
+    /**
+     * 暂停消费，等待正在处理的消息完成，已预取未处理的消息退回队列
+     *
+     * @param queueName
+     */
+    public synchronized void pause(String queueName) {
+        getEntry(queueName).container.stop();
+        LOG.info("consumer paused, queue: " + queueName);
+    }
+
+    public synchronized void resume(String queueName) {
+        getEntry(queueName).container.start();
+        LOG.info("consumer resumed, queue: " + queueName);
+    }
+
+    /**
+     * 停止并移除容器，再执行登记的清理，之后可以重新调用consume
+     *
+     * @param queueName
+     */
+    public synchronized void stop(String queueName) {
+        ConsumerEntry entry = consumers.remove(queueName);
+        if (entry != null) {
+            consumerAutoscaler.unregister(queueName);
+            entry.container.stop();
+            for (Runnable stopHook : entry.stopHooks) {
+                try {
+                    stopHook.run();
+                } catch (Exception e) {
+                    LOG.error("run stop hook error, queue: " + queueName, e);
+                }
+            }
+            LOG.info("consumer stopped, queue: " + queueName);
+        }
+    }
+
+    /**
+     * 停止所有容器，每个容器最多等待shutdownTimeoutMs，异步处理的容器在关闭channel前等待在途消息
+     */
+    @PreDestroy
+    public synchronized void stopAll() {
+        for (String queueName : new ArrayList<String>(consumers.keySet())) {
+            try {
+                stop(queueName);
+            } catch (Exception e) {
+                LOG.error("stop consumer error, queue: " + queueName, e);
+            }
+        }
+    }
+
+    /**
+     * 所有容器的状态
+     *
+     * @return
+     */
+    public List<Map<String, Object>> describe() {
+        List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+        for (Map.Entry<String, ConsumerEntry> entry : consumers.entrySet()) {
+            Map<String, Object> status = new LinkedHashMap<String, Object>();
+            status.put("queue", entry.getKey());
+            status.put("running", entry.getValue().container.isRunning());
+            status.put("activeConsumers", entry.getValue().container.getActiveConsumerCount());
+            status.put("mode", entry.getValue().mode);
+            result.add(status);
+        }
+        return result;
+    }
+
+    private ConsumerEntry getEntry(String queueName) {
+        ConsumerEntry entry = consumers.get(queueName);
+        if (entry == null) {
+            throw new IllegalArgumentException("no consumer for queue: " + queueName);
+        }
+        return entry;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+        metrics.add(new Metric<Integer>("mq.consumer.containers", consumers.size()));
+        for (Map.Entry<String, ConsumerEntry> entry : consumers.entrySet()) {
+            String prefix = "mq.consumer." + entry.getKey();
+            metrics.add(new Metric<Integer>(prefix + ".activeConsumers", entry.getValue().container.getActiveConsumerCount()));
+            metrics.add(new Metric<Integer>(prefix + ".running", entry.getValue().container.isRunning() ? 1 : 0));
+        }
+        return metrics;
+    }
+
+    private static class ConsumerEntry {
+
+        private final SimpleMessageListenerContainer container;
+
+        private final int minPrefetch;
+
+        private final ConsumerMode mode;
+
+        private final List<Runnable> stopHooks = new CopyOnWriteArrayList<Runnable>();
+
+        ConsumerEntry(SimpleMessageListenerContainer container, int minPrefetch, ConsumerMode mode) {
+            this.container = container;
+            this.minPrefetch = minPrefetch;
+            this.mode = mode;
+        }
+    }
+}
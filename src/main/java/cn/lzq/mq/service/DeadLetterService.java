@@ -0,0 +1,288 @@
+package cn.lzq.mq.service;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 死信队列
+ * 1. 每个业务队列声明死信交换机 {queue}.dlx 和死信队列 {queue}.dlq，被拒绝的消息进入死信队列，不再丢失
+ * 2. 批量重放：从死信队列按批取出消息，发送回原队列（或原交换机），等待broker确认后再确认死信队列中的消息，
+ *    发送速度受ratePerSecond限制，最多重放开始时死信队列中的消息数，重放后再次失败的消息不会在本次重放中循环
+ * 默认关闭。已存在的业务队列不能增加x-dead-letter-*参数重新声明（broker返回PRECONDITION_FAILED），开启前：
+ * 新部署直接开启mq.consumer.deadLetter.enabled；已有队列同时关闭mq.consumer.deadLetter.queueArguments，
+ * 由broker策略设置死信交换机，例如
+ * rabbitmqctl set_policy --apply-to queues orders-dlx "^orders$" '{"dead-letter-exchange":"orders.dlx","dead-letter-routing-key":"orders"}'
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class DeadLetterService implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeadLetterService.class);
+
+    @Autowired
+    private ConnectionFactory connectionFactory;
+
+    @Autowired
+    private RabbitTemplatePool rabbitTemplatePool;
+
+    @Value("${mq.consumer.deadLetter.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 是否在声明业务队列时设置x-dead-letter-*参数；关闭时只声明死信交换机和死信队列，死信设置由broker策略提供
+     */
+    @Value("${mq.consumer.deadLetter.queueArguments:true}")
+    private boolean queueArguments;
+
+    /**
+     * 每批重放的条数
+     */
+    @Value("${mq.consumer.deadLetter.replay.batchSize:200}")
+    private int batchSize;
+
+    /**
+     * 每秒最多重放的条数
+     */
+    @Value("${mq.consumer.deadLetter.replay.ratePerSecond:1000}")
+    private int ratePerSecond;
+
+    /**
+     * 死信队列在该时间内没有消息时结束重放
+     */
+    @Value("${mq.consumer.deadLetter.replay.idleTimeoutMs:1000}")
+    private long idleTimeoutMs;
+
+    @Value("${mq.consumer.deadLetter.replay.confirmTimeoutMs:10000}")
+    private long confirmTimeoutMs;
+
+    /**
+     * true:按x-death中记录的原交换机和路由键重放，会重新投递给原交换机的所有绑定队列；
+     * false:只重放到原队列
+     */
+    @Value("${mq.consumer.deadLetter.replay.toOriginalExchange:false}")
+    private boolean toOriginalExchange;
+
+    private final MessagePropertiesConverter messagePropertiesConverter = new DefaultMessagePropertiesConverter();
+
+    private final Set<String> replaying = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong replayedCount = new AtomicLong();
+
+    /**
+     * 声明死信交换机和死信队列
+     *
+     * @param rabbitAdmin
+     * @param queueName   业务队列
+     * @return 业务队列需要设置的参数，未开启死信队列或由broker策略设置时返回null
+     */
+    public Map<String, Object> declareDeadLetterQueue(RabbitAdmin rabbitAdmin, String queueName) {
+        if (!enabled) {
+            return null;
+        }
+        DirectExchange deadLetterExchange = new DirectExchange(deadLetterExchangeName(queueName));
+        rabbitAdmin.declareExchange(deadLetterExchange);
+
+        Queue deadLetterQueue = new Queue(deadLetterQueueName(queueName));
+        rabbitAdmin.declareQueue(deadLetterQueue);
+
+        Binding binding = BindingBuilder.bind(deadLetterQueue).to(deadLetterExchange).with(queueName);
+        rabbitAdmin.declareBinding(binding);
+
+        if (!queueArguments) {
+            return null;
+        }
+        Map<String, Object> arguments = new HashMap<String, Object>();
+        arguments.put("x-dead-letter-exchange", deadLetterExchangeName(queueName));
+        arguments.put("x-dead-letter-routing-key", queueName);
+        return arguments;
+    }
+
+    /**
+     * 重放死信队列中的消息
+     *
+     * @param queueName   业务队列
+     * @param maxMessages 最多重放条数，小于等于0表示重放开始时死信队列中的全部消息
+     * @return 重放成功的条数
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public long replay(String queueName, long maxMessages) throws IOException, InterruptedException {
+        if (!replaying.add(queueName)) {
+            throw new IllegalStateException("dead letter queue is being replayed: " + queueName);
+        }
+        Connection connection = connectionFactory.createConnection();
+        Channel channel = connection.createChannel(false);
+        try {
+            // 重放后再次失败的消息会回到死信队列，按开始时的消息数结束，避免循环重放
+            long depth = channel.queueDeclarePassive(deadLetterQueueName(queueName)).getMessageCount();
+            long limit = maxMessages <= 0 ? depth : Math.min(maxMessages, depth);
+            return limit == 0 ? 0 : replay(channel, queueName, limit);
+        } finally {
+            replaying.remove(queueName);
+            try {
+                channel.close();
+            } catch (Exception e) {
+                LOG.warn("close replay channel error", e);
+            }
+            connection.close();
+        }
+    }
+
+    private long replay(Channel channel, String queueName, long maxMessages) throws IOException, InterruptedException {
+        final BlockingQueue<Delivery> deliveries = new LinkedBlockingQueue<Delivery>();
+        channel.basicQos(batchSize);
+        String consumerTag = channel.basicConsume(deadLetterQueueName(queueName), false, new DefaultConsumer(channel) {
+            @Override
+            public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+                deliveries.add(new Delivery(envelope, properties, body));
+            }
+        });
+
+        long replayed = 0;
+        long unsettledTag = 0;
+        long startNanos = System.nanoTime();
+        try {
+            while (replayed < maxMessages) {
+                List<Delivery> batch = new ArrayList<Delivery>(batchSize);
+                Delivery first = deliveries.poll(idleTimeoutMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    break;
+                }
+                batch.add(first);
+                deliveries.drainTo(batch, (int) Math.min(batchSize, maxMessages - replayed) - 1);
+
+                List<OutgoingMessage> outgoingMessages = new ArrayList<OutgoingMessage>(batch.size());
+                for (Delivery delivery : batch) {
+                    outgoingMessages.add(toOutgoingMessage(queueName, delivery));
+                }
+                unsettledTag = batch.get(batch.size() - 1).envelope.getDeliveryTag();
+                if (!rabbitTemplatePool.sendAndWaitForConfirms(outgoingMessages, confirmTimeoutMs)) {
+                    // 未确认的整批在finally中退回死信队列
+                    LOG.warn("replay batch not confirmed, queue: " + queueName + ", replayed: " + replayed);
+                    break;
+                }
+                channel.basicAck(unsettledTag, true);
+                unsettledTag = 0;
+                replayed += batch.size();
+                replayedCount.addAndGet(batch.size());
+                throttle(replayed, startNanos);
+            }
+        } finally {
+            channel.basicCancel(consumerTag);
+            // 未确认的批次和已预取未重放的消息退回死信队列，channel会被缓存复用，不能依赖关闭channel来退回
+            List<Delivery> remaining = new ArrayList<Delivery>();
+            deliveries.drainTo(remaining);
+            if (!remaining.isEmpty()) {
+                unsettledTag = remaining.get(remaining.size() - 1).envelope.getDeliveryTag();
+            }
+            if (unsettledTag > 0) {
+                channel.basicNack(unsettledTag, true, true);
+            }
+        }
+        LOG.info("dead letter replay finished, queue: " + queueName + ", replayed: " + replayed);
+        return replayed;
+    }
+
+    /**
+     * 按ratePerSecond限速，已发送的条数超过已用时间允许的条数时等待
+     */
+    private void throttle(long replayed, long startNanos) throws InterruptedException {
+        if (ratePerSecond <= 0) {
+            return;
+        }
+        long expectedNanos = TimeUnit.SECONDS.toNanos(replayed) / ratePerSecond;
+        long aheadNanos = expectedNanos - (System.nanoTime() - startNanos);
+        if (aheadNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(aheadNanos);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private OutgoingMessage toOutgoingMessage(String queueName, Delivery delivery) {
+        MessageProperties properties = messagePropertiesConverter.toMessageProperties(delivery.properties, delivery.envelope, "UTF-8");
+        // 重放的消息重新计算延迟重试次数
+        properties.getHeaders().remove(RetryQueueManager.RETRY_COUNT_HEADER);
+        Message message = new Message(delivery.body, properties);
+
+        if (toOriginalExchange) {
+            Object xDeath = properties.getHeaders().get("x-death");
+            if (xDeath instanceof List) {
+                for (Map<String, Object> death : (List<Map<String, Object>>) xDeath) {
+                    if (queueName.equals(String.valueOf(death.get("queue")))) {
+                        List<Object> routingKeys = (List<Object>) death.get("routing-keys");
+                        String routingKey = routingKeys == null || routingKeys.isEmpty() ? queueName : String.valueOf(routingKeys.get(0));
+                        return new OutgoingMessage(String.valueOf(death.get("exchange")), routingKey, message);
+                    }
+                }
+            }
+        }
+        // 默认交换机按队列名路由，只回到原队列
+        return new OutgoingMessage("", queueName, message);
+    }
+
+    public String deadLetterExchangeName(String queueName) {
+        return queueName + ".dlx";
+    }
+
+    public String deadLetterQueueName(String queueName) {
+        return queueName + ".dlq";
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+        metrics.add(new Metric<Long>("mq.consumer.deadLetter.replayed", replayedCount.get()));
+        metrics.add(new Metric<Integer>("mq.consumer.deadLetter.replaying", replaying.size()));
+        return metrics;
+    }
+
+    private static class Delivery {
+
+        private final Envelope envelope;
+
+        private final AMQP.BasicProperties properties;
+
+        private final byte[] body;
+
+        Delivery(Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+            this.envelope = envelope;
+            this.properties = properties;
+            this.body = body;
+        }
+    }
+}
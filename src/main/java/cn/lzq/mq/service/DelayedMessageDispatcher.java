@@ -0,0 +1,486 @@
+package cn.lzq.mq.service;
+
+import cn.lzq.mq.common.MQMessage;
+import cn.lzq.mq.dao.MQRedisDao;
+import cn.lzq.mq.util.LatencyHistogram;
+import com.alibaba.fastjson.JSON;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 定时消息的暂存和发送
+ * 1. 消息按messageId分到mq.delayed.shards个redis ZSET中，score为发送时间；每个分片的待发送和发送中两个ZSET使用相同的hash tag
+ * 2. 发送线程按分片取到期消息，一个lua脚本原子地取出并移入发送中ZSET（score为租约到期时间），多个实例可以同时发送
+ * 3. 一批消息在同一个channel上发送并等待broker确认，确认后从发送中ZSET删除；未确认的消息延迟mq.delayed.retryDelayMs后重新发送
+ * 4. 实例在确认前退出时，租约到期后由取消息的脚本移回待发送ZSET，保证至少发送一次，消费端按messageId去重
+ * 5. 没有到期消息时等到最近的发送时间；本实例暂存了更早的消息时立即唤醒，其他实例暂存的消息最多延迟mq.delayed.maxWaitMs
+ * 6. 脚本中的当前时间、租约到期时间和发送失败后的重试时间取redis服务器的时间，各实例的时钟偏差不会导致提前回收其他实例的租约
+ * 7. 默认不发送（mq.delayed.enabled=false），使用定时发送时至少要有一个实例打开；
+ * redis不可用时发送线程按指数退避重试，最长间隔mq.delayed.maxBackoffMs，只在开始失败和恢复时记录日志
+ * 分片数只能增加，减少后多出分片中的消息不会再被发送
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class DelayedMessageDispatcher implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DelayedMessageDispatcher.class);
+
+    private static final String KEY_PREFIX = "mq_delayed_";
+
+    /**
+     * KEYS[1]:待发送 KEYS[2]:发送中 ARGV[1]:最多取出的条数 ARGV[2]:租约时长 ARGV[3]:客户端当前时间
+     * 当前时间取redis的TIME；TIME之后还有写命令，需要先调用replicate_commands按命令复制（redis 3.2~4.x），
+     * 5.0之后默认按命令复制，调用也会成功；3.2之前没有该函数，pcall失败后改用客户端时间
+     * 先把租约到期的消息移回待发送，再取出到期消息移入发送中，
+     * 返回 {移回的条数, 剩余消息最早的发送时间（没有时为-1）, 当前时间, 消息1, 发送时间1, 消息2, 发送时间2...}
+     */
+    private static final String POP_SCRIPT = "local now "
+            + "if pcall(redis.replicate_commands) then "
+            + "  local time = redis.call('TIME') "
+            + "  now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000) "
+            + "else "
+            + "  now = tonumber(ARGV[3]) "
+            + "end "
+            + "local leaseUntil = now + tonumber(ARGV[2]) "
+            + "local expired = redis.call('zrangebyscore', KEYS[2], '-inf', now, 'LIMIT', 0, ARGV[1]) "
+            + "for i = 1, #expired do "
+            + "  redis.call('zadd', KEYS[1], now, expired[i]) "
+            + "  redis.call('zrem', KEYS[2], expired[i]) "
+            + "end "
+            + "local due = redis.call('zrangebyscore', KEYS[1], '-inf', now, 'WITHSCORES', 'LIMIT', 0, ARGV[1]) "
+            + "local result = {#expired, -1, now} "
+            + "for i = 1, #due, 2 do "
+            + "  redis.call('zadd', KEYS[2], leaseUntil, due[i]) "
+            + "  redis.call('zrem', KEYS[1], due[i]) "
+            + "  result[#result + 1] = due[i] "
+            + "  result[#result + 1] = due[i + 1] "
+            + "end "
+            + "local first = redis.call('zrange', KEYS[1], 0, 0, 'WITHSCORES') "
+            + "if #first > 0 then result[2] = tonumber(first[2]) end "
+            + "return result";
+
+    /**
+     * KEYS[1]:待发送 KEYS[2]:发送中 ARGV[1]:重试延迟 ARGV[2]:客户端当前时间 ARGV[3...]:发送失败的消息
+     * 当前时间的取法与POP_SCRIPT相同，把消息从发送中移回待发送，score为 当前时间+重试延迟，返回移回的条数
+     */
+    private static final String REQUEUE_SCRIPT = "local now "
+            + "if pcall(redis.replicate_commands) then "
+            + "  local time = redis.call('TIME') "
+            + "  now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000) "
+            + "else "
+            + "  now = tonumber(ARGV[2]) "
+            + "end "
+            + "local retryAt = now + tonumber(ARGV[1]) "
+            + "for i = 3, #ARGV do "
+            + "  redis.call('zadd', KEYS[1], retryAt, ARGV[i]) "
+            + "  redis.call('zrem', KEYS[2], ARGV[i]) "
+            + "end "
+            + "return #ARGV - 2";
+
+    @Autowired
+    private MQRedisDao redisDao;
+
+    @Autowired
+    private RabbitTemplatePool rabbitTemplatePool;
+
+    /**
+     * 是否在本实例发送到期消息，关闭后仍可暂存，由打开的实例发送
+     */
+    @Value("${mq.delayed.enabled:false}")
+    private boolean enabled;
+
+    @Value("${mq.delayed.shards:16}")
+    private int shards;
+
+    /**
+     * 发送线程数，每个线程负责一部分分片
+     */
+    @Value("${mq.delayed.threads:2}")
+    private int threads;
+
+    /**
+     * 每次从一个分片取出的最大条数
+     */
+    @Value("${mq.delayed.batchSize:200}")
+    private int batchSize;
+
+    /**
+     * 没有到期消息时的最长等待时间
+     */
+    @Value("${mq.delayed.maxWaitMs:200}")
+    private long maxWaitMs;
+
+    /**
+     * 发送中的消息超过该时间未确认时重新发送，需要大于mq.producer.confirmTimeoutMs
+     */
+    @Value("${mq.delayed.leaseMs:30000}")
+    private long leaseMs;
+
+    @Value("${mq.delayed.retryDelayMs:1000}")
+    private long retryDelayMs;
+
+    /**
+     * redis访问失败后的最长重试间隔，从maxWaitMs开始翻倍
+     */
+    @Value("${mq.delayed.maxBackoffMs:30000}")
+    private long maxBackoffMs;
+
+    @Value("${mq.producer.confirmTimeoutMs:5000}")
+    private long confirmTimeoutMs;
+
+    @Value("${mq.delayed.metrics.windowMs:60000}")
+    private long metricsWindowMs;
+
+    private Worker[] workers;
+
+    private volatile boolean running;
+
+    private final AtomicLong scheduledCount = new AtomicLong();
+
+    private final AtomicLong dispatchedCount = new AtomicLong();
+
+    private final AtomicLong requeuedCount = new AtomicLong();
+
+    private final AtomicLong recoveredCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final AtomicLong errorCount = new AtomicLong();
+
+    /**
+     * 正在退避的发送线程数，大于0时指标不再查询各分片的消息数
+     */
+    private final AtomicInteger backingOffWorkers = new AtomicInteger();
+
+    /**
+     * broker确认时间与预定发送时间之差，毫秒
+     */
+    private final LatencyHistogram lag = new LatencyHistogram();
+
+    private LatencyHistogram.Snapshot lagWindowEnd = LatencyHistogram.Snapshot.empty();
+
+    private LatencyHistogram.Snapshot lagWindow = LatencyHistogram.Snapshot.empty();
+
+    private long lagWindowStart;
+
+    /**
+     * 各分片待发送、发送中的消息数，每个指标窗口查询一次
+     */
+    private long pendingBacklog;
+
+    private long inflightBacklog;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        if (leaseMs <= confirmTimeoutMs) {
+            throw new IllegalArgumentException("mq.delayed.leaseMs must be greater than mq.producer.confirmTimeoutMs");
+        }
+        running = true;
+        int workerCount = Math.max(1, Math.min(threads, shards));
+        workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(i, workerCount);
+            workers[i].thread.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (workers != null) {
+            for (Worker worker : workers) {
+                worker.thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * 暂存定时消息
+     *
+     * @param message       messageId不能为空
+     * @param dueTimeMillis 发送时间，java时间戳（毫秒）
+     * @return 暂存成功返回true
+     */
+    public boolean schedule(MQMessage message, long dueTimeMillis) {
+        int shard = shardOf(message.getMessageId());
+        Long added = redisDao.zadd(pendingKey(shard), dueTimeMillis, JSON.toJSONString(message));
+        if (added == null) {
+            return false;
+        }
+        scheduledCount.incrementAndGet();
+        if (workers != null) {
+            Worker worker = workers[shard % workers.length];
+            if (dueTimeMillis < worker.nextWakeAt) {
+                worker.wakeUp();
+            }
+        }
+        return true;
+    }
+
+    private int shardOf(String messageId) {
+        return (messageId.hashCode() & Integer.MAX_VALUE) % shards;
+    }
+
+    private static String pendingKey(int shard) {
+        return "{" + KEY_PREFIX + shard + "}";
+    }
+
+    private static String inflightKey(int shard) {
+        return "{" + KEY_PREFIX + shard + "}_inflight";
+    }
+
+    /**
+     * 发送一个分片的到期消息，直到没有到期消息
+     *
+     * @param shard
+     * @return 剩余消息最早的发送时间距现在的毫秒数（按redis服务器的时间计算），没有消息时返回-1
+     * @throws IllegalStateException redis访问失败
+     */
+    @SuppressWarnings("unchecked")
+    private long dispatchDue(int shard) {
+        while (running) {
+            Object reply = redisDao.eval(POP_SCRIPT, Arrays.asList(pendingKey(shard), inflightKey(shard)),
+                    Arrays.asList(String.valueOf(batchSize), String.valueOf(leaseMs),
+                            String.valueOf(System.currentTimeMillis())));
+            if (!(reply instanceof List)) {
+                throw new IllegalStateException("pop delayed messages failed, shard: " + shard);
+            }
+            List<Object> result = (List<Object>) reply;
+            long recovered = (Long) result.get(0);
+            if (recovered > 0) {
+                recoveredCount.addAndGet(recovered);
+                LOG.warn("recovered " + recovered + " delayed messages with expired lease, shard: " + shard);
+            }
+            int popped = (result.size() - 3) / 2;
+            if (popped > 0) {
+                List<String> members = new ArrayList<String>(popped);
+                List<Long> dueTimes = new ArrayList<Long>(popped);
+                for (int i = 3; i < result.size(); i += 2) {
+                    members.add((String) result.get(i));
+                    dueTimes.add((long) Double.parseDouble((String) result.get(i + 1)));
+                }
+                publish(shard, members, dueTimes);
+            }
+            if (popped < batchSize) {
+                long firstDue = (Long) result.get(1);
+                return firstDue < 0 ? -1 : Math.max(0, firstDue - (Long) result.get(2));
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 一批消息在同一个channel上发送，只等待一次确认
+     */
+    private void publish(final int shard, final List<String> members, List<Long> dueTimes) {
+        List<OutgoingMessage> outgoingMessages = new ArrayList<OutgoingMessage>(members.size());
+        MessageConverter messageConverter = rabbitTemplatePool.getMessageConverter();
+        for (String member : members) {
+            try {
+                MQMessage message = JSON.parseObject(member, MQMessage.class);
+                MessageProperties messageProperties = new MessageProperties();
+                messageProperties.setMessageId(message.getMessageId());
+                Message packMessage = messageConverter.toMessage(message.getMessage(), messageProperties);
+                outgoingMessages.add(new OutgoingMessage(message.getExchangeName(), message.getRoutingKey(), packMessage));
+            } catch (RuntimeException e) {
+                // 无法解析的消息不重试，随本批确认后删除
+                droppedCount.incrementAndGet();
+                LOG.error("drop malformed delayed message, shard: " + shard + ", message: " + member, e);
+            }
+        }
+
+        boolean confirmed = false;
+        try {
+            confirmed = rabbitTemplatePool.sendAndWaitForConfirms(outgoingMessages, confirmTimeoutMs);
+        } catch (RuntimeException e) {
+            LOG.error("publish delayed messages error, shard: " + shard, e);
+        }
+        final String[] memberArray = members.toArray(new String[members.size()]);
+        if (confirmed) {
+            // 删除失败时租约到期后重新发送
+            redisDao.zrem(inflightKey(shard), memberArray);
+            dispatchedCount.addAndGet(outgoingMessages.size());
+            long now = System.currentTimeMillis();
+            for (Long dueTime : dueTimes) {
+                lag.record(now - dueTime);
+            }
+            return;
+        }
+
+        // 重试时间按redis服务器的时间计算；失败时租约到期后重新发送
+        List<String> args = new ArrayList<String>(members.size() + 2);
+        args.add(String.valueOf(retryDelayMs));
+        args.add(String.valueOf(System.currentTimeMillis()));
+        args.addAll(members);
+        redisDao.eval(REQUEUE_SCRIPT, Arrays.asList(pendingKey(shard), inflightKey(shard)), args);
+        requeuedCount.addAndGet(members.size());
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+        metrics.add(new Metric<Long>("mq.delayed.scheduled", scheduledCount.get()));
+        metrics.add(new Metric<Long>("mq.delayed.dispatched", dispatchedCount.get()));
+        metrics.add(new Metric<Long>("mq.delayed.requeued", requeuedCount.get()));
+        metrics.add(new Metric<Long>("mq.delayed.recovered", recoveredCount.get()));
+        metrics.add(new Metric<Long>("mq.delayed.dropped", droppedCount.get()));
+        metrics.add(new Metric<Long>("mq.delayed.errors", errorCount.get()));
+        LatencyHistogram.Snapshot window;
+        long pending;
+        long inflight;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now - lagWindowStart >= metricsWindowMs) {
+                lagWindowStart = now;
+                LatencyHistogram.Snapshot current = lag.snapshot();
+                lagWindow = current.minus(lagWindowEnd);
+                lagWindowEnd = current;
+                // 每个窗口查询一次，每次2*shards个ZCARD；redis不可用时不查询，避免每次采集都等待超时并记录错误日志
+                if (workers != null && backingOffWorkers.get() == 0) {
+                    refreshBacklog();
+                }
+            }
+            window = lagWindow;
+            pending = pendingBacklog;
+            inflight = inflightBacklog;
+        }
+        // 本实例不发送时不上报积压，由发送的实例上报
+        if (workers != null) {
+            metrics.add(new Metric<Long>("mq.delayed.pending", pending));
+            metrics.add(new Metric<Long>("mq.delayed.inflight", inflight));
+        }
+        metrics.add(new Metric<Long>("mq.delayed.lag.p50Ms", window.getValueAtPercentile(50)));
+        metrics.add(new Metric<Long>("mq.delayed.lag.p99Ms", window.getValueAtPercentile(99)));
+        metrics.add(new Metric<Long>("mq.delayed.lag.maxMs", window.getMax()));
+        return metrics;
+    }
+
+    private void refreshBacklog() {
+        long pending = 0;
+        long inflight = 0;
+        for (int shard = 0; shard < shards; shard++) {
+            Long pendingCount = redisDao.zcard(pendingKey(shard));
+            Long inflightCount = redisDao.zcard(inflightKey(shard));
+            pending += pendingCount == null ? 0 : pendingCount;
+            inflight += inflightCount == null ? 0 : inflightCount;
+        }
+        pendingBacklog = pending;
+        inflightBacklog = inflight;
+    }
+
+    /**
+     * 发送线程，负责shard % workerCount == index的分片
+     */
+    private class Worker implements Runnable {
+
+        private final int index;
+
+        private final int workerCount;
+
+        private final Thread thread;
+
+        private final Semaphore wakeUpSignal = new Semaphore(0);
+
+        /**
+         * 计划唤醒的时间，取消息期间为Long.MAX_VALUE，此时暂存的消息都会唤醒线程再取一次
+         */
+        private volatile long nextWakeAt = Long.MAX_VALUE;
+
+        /**
+         * 连续失败的次数
+         */
+        private int failures;
+
+        Worker(int index, int workerCount) {
+            this.index = index;
+            this.workerCount = workerCount;
+            this.thread = new Thread(this, "mq-delayed-dispatcher-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void wakeUp() {
+            if (wakeUpSignal.availablePermits() == 0) {
+                wakeUpSignal.release();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    nextWakeAt = Long.MAX_VALUE;
+                    long waitMs = maxWaitMs;
+                    for (int shard = index; shard < shards; shard += workerCount) {
+                        long nextDueMs = dispatchDue(shard);
+                        if (nextDueMs >= 0) {
+                            waitMs = Math.min(waitMs, nextDueMs);
+                        }
+                    }
+                    recovered();
+                    long wakeAt = System.currentTimeMillis() + waitMs;
+                    nextWakeAt = wakeAt;
+                    if (waitMs > 0 && wakeUpSignal.tryAcquire(waitMs, TimeUnit.MILLISECONDS)) {
+                        wakeUpSignal.drainPermits();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (RuntimeException e) {
+                    try {
+                        Thread.sleep(backOff(e));
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * 失败后的等待时间，从maxWaitMs开始翻倍，不超过maxBackoffMs；只在第一次失败时记录错误日志
+         */
+        private long backOff(RuntimeException e) {
+            errorCount.incrementAndGet();
+            long backoffMs = Math.min(maxWaitMs << Math.min(failures, 20), Math.max(maxWaitMs, maxBackoffMs));
+            if (failures++ == 0) {
+                backingOffWorkers.incrementAndGet();
+                LOG.error("dispatch delayed messages error, retry with backoff up to " + maxBackoffMs + "ms", e);
+            } else {
+                LOG.debug("dispatch delayed messages error, failures: " + failures + ", retry in " + backoffMs + "ms", e);
+            }
+            return backoffMs;
+        }
+
+        private void recovered() {
+            if (failures > 0) {
+                LOG.info("dispatch delayed messages recovered after " + failures + " failures");
+                failures = 0;
+                backingOffWorkers.decrementAndGet();
+            }
+        }
+    }
+}
@@ -7,11 +7,10 @@ import org.springframework.stereotype.Service;
  * Created by lianzhiqiang on 2017/7/21.
  */
 @Service("jsonMessageProcessImpl")
-public class JsonMessageProcessImpl implements MessageProcess {
+public class JsonMessageProcessImpl implements MessageProcess<JSONObject> {
 
     @Override
-    public boolean process(String message) {
-        JSONObject jsonObject = JSONObject.parseObject(message);
+    public boolean process(JSONObject jsonObject) {
         System.out.println(jsonObject);
         // 业务逻辑
         return true;
@@ -0,0 +1,67 @@
+package cn.lzq.mq.service;
+
+import com.alibaba.fastjson.JSON;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+/**
+ * json编解码，默认格式
+ * 1. String消息默认按原来的格式编码成json字符串字面量（"{\"id\":1}"），与旧版本的消费者兼容；
+ *    所有消费者升级后可以关闭mq.codec.json.stringLiteral，String消息已经是json文本，直接按UTF-8写入
+ * 2. 两种格式都可以解码：json字符串字面量先取出字符串再解析为目标类型
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class JsonPayloadCodec implements PayloadCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * true:String消息按原来的格式编码成json字符串字面量，
+     * 所有消费者升级到按content-type解码之后，发送方才能关闭
+     */
+    @Value("${mq.codec.json.stringLiteral:true}")
+    private boolean stringLiteral;
+
+    @Override
+    public String getContentType() {
+        return MessageProperties.CONTENT_TYPE_JSON;
+    }
+
+    @Override
+    public byte[] encode(Object payload) {
+        if (payload instanceof String && !stringLiteral) {
+            return ((String) payload).getBytes(UTF_8);
+        }
+        return JSON.toJSONBytes(payload);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T decode(byte[] body, Type type) {
+        if (firstNonWhitespace(body) == '"') {
+            // json字符串字面量，解析一次取出字符串
+            String text = JSON.parseObject(body, String.class);
+            return type == String.class ? (T) text : (T) JSON.parseObject(text, type);
+        }
+        if (type == String.class) {
+            return (T) new String(body, UTF_8);
+        }
+        return (T) JSON.parseObject(body, type);
+    }
+
+    private byte firstNonWhitespace(byte[] body) {
+        for (byte b : body) {
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return b;
+            }
+        }
+        return 0;
+    }
+}
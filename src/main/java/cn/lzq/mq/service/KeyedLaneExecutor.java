@@ -0,0 +1,81 @@
+package cn.lzq.mq.service;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按key分道串行执行
+ * 固定数量的单线程通道，同一个key的任务总是进入同一个通道，按提交顺序执行；不同key的任务在不同通道上并行
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public class KeyedLaneExecutor {
+
+    private final ExecutorService[] lanes;
+
+    private final AtomicInteger roundRobin = new AtomicInteger();
+
+    public KeyedLaneExecutor(int laneCount, String threadNamePrefix) {
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("laneCount must be positive");
+        }
+        lanes = new ExecutorService[laneCount];
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(threadNamePrefix);
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), threadFactory);
+        }
+    }
+
+    /**
+     * 提交任务
+     *
+     * @param key  为null时任务没有顺序要求，轮流分配通道
+     * @param task
+     */
+    public void execute(String key, Runnable task) {
+        lanes[laneOf(key)].execute(task);
+    }
+
+    public int laneOf(String key) {
+        if (key == null) {
+            return (roundRobin.getAndIncrement() & Integer.MAX_VALUE) % lanes.length;
+        }
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return (h & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    public void shutdown() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    /**
+     * 等待所有通道的任务执行完成
+     *
+     * @param timeoutMs 所有通道合计的最长等待时间
+     * @return 是否全部完成
+     * @throws InterruptedException
+     */
+    public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (ExecutorService lane : lanes) {
+            if (!lane.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,180 @@
+package cn.lzq.mq.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 消费去重的本地缓存，放在redis前面
+ * 1. 记录本机最近处理成功的 队列名_消息id，重复投递大多在几秒内回到同一个JVM，可以直接在本地判定
+ * 2. 按key的hash分段加锁，每段按写入顺序淘汰，超过容量或有效时间即移除
+ * 3. 未命中时仍由去重策略MessageDeduplicator判定，本地缓存只是加速，不影响去重的正确性
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class LocalDedupCache implements PublicMetrics {
+
+    @Value("${mq.consumer.dedupCache.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 最多缓存的key数量
+     */
+    @Value("${mq.consumer.dedupCache.maxSize:100000}")
+    private int maxSize;
+
+    /**
+     * 有效时间，与redis中去重key的有效时间一致
+     */
+    @Value("${mq.consumer.dedupCache.expireSeconds:60}")
+    private int expireSeconds;
+
+    /**
+     * 分段数，取不小于该值的2的幂
+     */
+    @Value("${mq.consumer.dedupCache.stripes:16}")
+    private int stripeCount;
+
+    private Stripe[] stripes;
+
+    private long expireMillis;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        int count = 1;
+        while (count < stripeCount) {
+            count <<= 1;
+        }
+        int stripeCapacity = Math.max(1, maxSize / count);
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(stripeCapacity);
+        }
+        expireMillis = expireSeconds * 1000L;
+    }
+
+    /**
+     * 本机最近是否处理成功过
+     *
+     * @param key 队列名_消息id
+     * @return
+     */
+    public boolean contains(String key) {
+        if (!enabled) {
+            return false;
+        }
+        if (stripeFor(key).contains(key, System.currentTimeMillis())) {
+            hitCount.incrementAndGet();
+            return true;
+        }
+        missCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * 记录处理成功的消息
+     *
+     * @param key 队列名_消息id
+     */
+    public void add(String key) {
+        if (enabled) {
+            stripeFor(key).add(key, System.currentTimeMillis() + expireMillis);
+        }
+    }
+
+    private Stripe stripeFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    private int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        long hits = hitCount.get();
+        long misses = missCount.get();
+        List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+        metrics.add(new Metric<Long>("mq.consumer.dedupCache.hit", hits));
+        metrics.add(new Metric<Long>("mq.consumer.dedupCache.miss", misses));
+        metrics.add(new Metric<Double>("mq.consumer.dedupCache.hitRate", hits + misses == 0 ? 0D : (double) hits / (hits + misses)));
+        metrics.add(new Metric<Long>("mq.consumer.dedupCache.evictions", evictionCount.get()));
+        if (stripes != null) {
+            metrics.add(new Metric<Integer>("mq.consumer.dedupCache.size", size()));
+        }
+        return metrics;
+    }
+
+    /**
+     * 一个分段，key -> 过期时间，按写入顺序排列，有效时间固定，所以越靠前越早过期
+     */
+    private class Stripe {
+
+        private final LinkedHashMap<String, Long> entries;
+
+        Stripe(final int capacity) {
+            entries = new LinkedHashMap<String, Long>(16, 0.75f, false) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    if (size() > capacity) {
+                        evictionCount.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized boolean contains(String key, long now) {
+            Long expireAt = entries.get(key);
+            if (expireAt == null) {
+                return false;
+            }
+            if (expireAt <= now) {
+                entries.remove(key);
+                return false;
+            }
+            return true;
+        }
+
+        synchronized void add(String key, long expireAt) {
+            long now = expireAt - expireMillis;
+            Iterator<Long> iterator = entries.values().iterator();
+            while (iterator.hasNext() && iterator.next() <= now) {
+                iterator.remove();
+                evictionCount.incrementAndGet();
+            }
+            // 先移除再放入，保证重新写入的key排在最后
+            entries.remove(key);
+            entries.put(key, expireAt);
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+}
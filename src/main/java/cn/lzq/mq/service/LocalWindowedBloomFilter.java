@@ -0,0 +1,98 @@
+package cn.lzq.mq.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 进程内的窗口布隆过滤器，位图用AtomicLongArray，读写都不加锁
+ * 只能识别本机处理过的消息，多实例消费同一个队列时应使用redis存储
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+class LocalWindowedBloomFilter extends WindowedBloomFilter {
+
+    private volatile Generation current;
+
+    private volatile Generation previous;
+
+    LocalWindowedBloomFilter(long expectedInsertions, double fpp, long windowMillis) {
+        super(expectedInsertions, fpp, windowMillis);
+        if (bits > Integer.MAX_VALUE * 64L) {
+            throw new IllegalArgumentException("bloom filter too large for local storage: " + bits + " bits");
+        }
+        current = new Generation(currentWindow(), (int) ((bits + 63) / 64));
+    }
+
+    @Override
+    List<Boolean> mightContain(List<String> keys) {
+        rotate();
+        Generation currentGeneration = current;
+        Generation previousGeneration = previous;
+        List<Boolean> results = new ArrayList<Boolean>(keys.size());
+        for (String key : keys) {
+            long[] offsets = offsets(key);
+            results.add(currentGeneration.containsAll(offsets)
+                    || (previousGeneration != null && previousGeneration.containsAll(offsets)));
+        }
+        return results;
+    }
+
+    @Override
+    void put(List<String> keys) {
+        rotate();
+        Generation generation = current;
+        for (String key : keys) {
+            for (long offset : offsets(key)) {
+                generation.set(offset);
+            }
+        }
+    }
+
+    private void rotate() {
+        long window = currentWindow();
+        if (current.window == window) {
+            return;
+        }
+        synchronized (this) {
+            if (current.window != window) {
+                previous = current.window == window - 1 ? current : null;
+                current = new Generation(window, (int) ((bits + 63) / 64));
+            }
+        }
+    }
+
+    private static class Generation {
+
+        private final long window;
+
+        private final AtomicLongArray words;
+
+        Generation(long window, int wordCount) {
+            this.window = window;
+            this.words = new AtomicLongArray(wordCount);
+        }
+
+        boolean containsAll(long[] offsets) {
+            for (long offset : offsets) {
+                if ((words.get((int) (offset >>> 6)) & (1L << offset)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void set(long offset) {
+            int index = (int) (offset >>> 6);
+            long mask = 1L << offset;
+            long word;
+            do {
+                word = words.get(index);
+                if ((word & mask) != 0) {
+                    return;
+                }
+            } while (!words.compareAndSet(index, word, word | mask));
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package cn.lzq.mq.service;
 
+import java.util.List;
+
 /**
  * Created by lianzhiqiang on 2017/7/21.
  */
@@ -7,6 +9,25 @@ public interface MQSendTaskService {
 
     /**
      * 扫描数据库表，发送信息
+     *
+     * @return 本次发送条数
+     */
+    int scanTableAndSendMessage() throws InterruptedException;
+
+    /**
+     * 扫描数据库表，发送信息
+     *
+     * @param pageSize      每页读取条数
+     * @param createdBefore 只发送CREATED_ON小于该时间戳（毫秒）的消息
+     * @return 本次发送条数
+     */
+    int scanTableAndSendMessage(int pageSize, long createdBefore) throws InterruptedException;
+
+    /**
+     * 认领并发送指定的消息，已删除或正被其他线程/节点发送的消息跳过
+     *
+     * @param ids 消息表id
+     * @return 本次发送条数
      */
-    void scanTableAndSendMessage() throws InterruptedException;
+    int sendMessages(List<Long> ids) throws InterruptedException;
 }
@@ -1,22 +1,30 @@
 package cn.lzq.mq.service;
 
 
+import cn.lzq.mq.common.MQMessage;
+import cn.lzq.mq.common.MQPublishProfileEnum;
 import cn.lzq.mq.dao.TMessageDao;
-import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.amqp.core.Message;
-import org.springframework.amqp.rabbit.connection.ConnectionFactory;
-import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.rabbit.support.CorrelationData;
-import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.retry.backoff.ExponentialBackOffPolicy;
-import org.springframework.retry.support.RetryTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by lianzhiqiang on 2017/7/21.
@@ -24,77 +32,156 @@ import java.util.UUID;
 @Service
 public class MQSendTaskServiceImpl implements MQSendTaskService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(MQSendTaskServiceImpl.class);
 
     @Autowired
-    private ConnectionFactory connectionFactory;
+    private RabbitTemplatePool rabbitTemplatePool;
+
+    @Autowired
+    private OutboxConfirmPipeline outboxConfirmPipeline;
+
+    /**
+     * 每页读取的消息条数
+     */
+    @Value("${mq.relay.pageSize:1000}")
+    private int pageSize;
+
+    /**
+     * 本节点的补偿线程数，各线程并发认领消息，0表示按jvmCPU核数配置
+     */
+    @Value("${mq.relay.workers:0}")
+    private int workers;
+
+    /**
+     * 认领消息的租约时长，节点宕机时其认领的消息在租约到期后由其他节点重新发送
+     */
+    @Value("${mq.relay.leaseMs:60000}")
+    private long leaseMs;
+
+    @Value("${mq.relay.confirm.timeoutMs:30000}")
+    private long confirmTimeoutMs;
 
     @Autowired
     private TMessageDao tMessageDao;
 
+    private ExecutorService relayExecutor;
+
+    @PostConstruct
+    public void init() {
+        if (leaseMs <= confirmTimeoutMs) {
+            throw new IllegalArgumentException("mq.relay.leaseMs must be greater than mq.relay.confirm.timeoutMs");
+        }
+        // 认领、租约和确认失败后的恢复都读写该列，缺少时每次补偿和恢复都会失败
+        if (!tMessageDao.hasRelayLeaseColumn()) {
+            throw new IllegalStateException("column mq_message.RELAY_LEASE_UNTIL is missing, "
+                    + "run sql/mq_message_relay_lease.sql before starting this version");
+        }
+        if (workers <= 0) {
+            workers = Runtime.getRuntime().availableProcessors();
+        }
+        relayExecutor = Executors.newFixedThreadPool(workers, new CustomizableThreadFactory("mq-relay-"));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        relayExecutor.shutdownNow();
+    }
+
+    @Override
+    public int scanTableAndSendMessage() throws InterruptedException {
+        return scanTableAndSendMessage(pageSize, Long.MAX_VALUE);
+    }
+
     @Override
-    public void scanTableAndSendMessage() throws InterruptedException {
-        List<Map<String, Object>> messageList = tMessageDao.queryAllMessageByStatus();
-
-        if (CollectionUtils.isNotEmpty(messageList)) {
-            for (Map<String, Object> map : messageList) {
-                Long id = Long.parseLong(map.get("id").toString());
-                String exchangeName = (String) map.get("EXCHANGE_NAME");
-                String routingKey = (String) map.get("ROUTING_KEY");
-                Object message = map.get("MESSAGE");
-
-                send(id, exchangeName, routingKey, message);
-                tMessageDao.deleteByStatus(id);
+    public int scanTableAndSendMessage(final int pageSize, final long createdBefore) throws InterruptedException {
+        // 各线程（包括其他节点的线程）通过SKIP LOCKED认领互不重复的消息，不需要按节点划分
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(workers);
+        for (int i = 0; i < workers; i++) {
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return claimAndSend(pageSize, createdBefore);
+                }
+            });
+        }
+
+        int sent = 0;
+        for (Future<Integer> future : relayExecutor.invokeAll(tasks)) {
+            try {
+                sent += future.get();
+            } catch (ExecutionException e) {
+                LOG.error("relay worker error", e.getCause());
             }
+        }
 
-        } else {
-            Thread.sleep(1000);
+        return sent;
+    }
+
+    @Override
+    public int sendMessages(List<Long> ids) throws InterruptedException {
+        int sent = 0;
+        // IN列表最多1000个
+        for (int from = 0; from < ids.size(); from += 500) {
+            List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + 500));
+            sent += publish(tMessageDao.claimMessages(chunk, leaseMs));
         }
+        return sent;
     }
 
-    private void send(Long id, String exchangeName, String routing, Object message) {
-
-        RabbitAdmin rabbitAdmin = new RabbitAdmin(connectionFactory);
-
-        RetryTemplate retryTemplate = new RetryTemplate();
-        /**
-         * 指数退避策略，需设置参数sleeper、initialInterval、maxInterval和multiplier，
-         * initialInterval指定初始休眠时间，默认100毫秒，
-         * maxInterval指定最大休眠时间，默认30秒，
-         * multiplier指定乘数，即下一次休眠时间为当前休眠时间*multiplier
-         *
-         */
-        ExponentialBackOffPolicy backOffPolicy = new ExponentialBackOffPolicy();
-        backOffPolicy.setInitialInterval(500);
-        backOffPolicy.setMultiplier(10.0);
-        backOffPolicy.setMaxInterval(10000);
-
-        retryTemplate.setBackOffPolicy(backOffPolicy);
-
-        RabbitTemplate rabbitTemplate = rabbitAdmin.getRabbitTemplate();
-        rabbitTemplate.setRetryTemplate(retryTemplate);
-        rabbitTemplate.setMandatory(true);
-        rabbitTemplate.setMessageConverter(new Jackson2JsonMessageConverter());
-
-        rabbitTemplate.setConfirmCallback(new RabbitTemplate.ConfirmCallback() {
-            @Override
-            public void confirm(CorrelationData correlationData, boolean ack, String cause) {
-                if (ack) {
-                    tMessageDao.delete(Long.valueOf(correlationData.getId()));
-                }
+    /**
+     * 按id从小到大反复认领一页消息并发送，直到认领不满一页
+     */
+    private int claimAndSend(int pageSize, long createdBefore) throws InterruptedException {
+        int sent = 0;
+        long afterId = 0;
+        List<MQMessage> claimed;
+        do {
+            claimed = tMessageDao.claimPendingMessages(afterId, pageSize, createdBefore, leaseMs);
+            sent += publish(claimed);
+            if (!claimed.isEmpty()) {
+                afterId = claimed.get(claimed.size() - 1).getId();
             }
-        });
+        } while (claimed.size() == pageSize);
+        return sent;
+    }
+
+    /**
+     * 发送认领到的消息，认领的事务已提交，发送时不占用数据库连接
+     * 发送后不再同步更新状态，确认结果由OutboxConfirmPipeline批量处理
+     */
+    private int publish(List<MQMessage> claimed) throws InterruptedException {
+        int sent = 0;
+        for (MQMessage message : claimed) {
+            // 上一轮发送的消息还在等待确认或等待删除
+            if (outboxConfirmPipeline.isPending(message.getId())) {
+                continue;
+            }
+            String correlationId = outboxConfirmPipeline.acquireAndTrack(message.getId());
+            send(message.getId(), correlationId, message.getMessageId(), message.getExchangeName(), message.getRoutingKey(), message.getMessage());
+            sent++;
+        }
+        return sent;
+    }
+
+    private void send(Long id, String correlationId, String messageId, String exchangeName, String routing, Object message) {
+
+        RabbitTemplate rabbitTemplate = rabbitTemplatePool.getTemplate(exchangeName, MQPublishProfileEnum.RETRY);
 
         try {
 
-            String messageId = UUID.randomUUID().toString();
+            if (StringUtils.isBlank(messageId)) {
+                messageId = UUID.randomUUID().toString();
+            }
             org.springframework.amqp.core.MessageProperties messageProperties = new org.springframework.amqp.core.MessageProperties();
             messageProperties.setMessageId(messageId);
 
             Message packMessage = rabbitTemplate.getMessageConverter().toMessage(message, messageProperties);
 
-            rabbitTemplate.convertAndSend(exchangeName, routing, packMessage, new CorrelationData(id + ""));
+            rabbitTemplate.convertAndSend(exchangeName, routing, packMessage, new CorrelationData(correlationId));
 
         } catch (Exception e) {
+            // 清除租约，下次扫描重新发送
+            outboxConfirmPipeline.untrackAndRetry(id);
         }
     }
 }
@@ -12,7 +12,7 @@ public interface MessageConsumer {
      * @param queue
      * @param messageProcess
      */
-    void consume(String exchange, String routing, String queue, MessageProcess messageProcess);
+    void consume(String exchange, String routing, String queue, MessageProcess<?> messageProcess);
 
     /**
      * 消费者建立，指定数量
@@ -23,5 +23,83 @@ public interface MessageConsumer {
      * @param messageProcess
      * @param consumeNum
      */
-    void consume(String exchange, String routing, String queue, MessageProcess messageProcess, int consumeNum);
+    void consume(String exchange, String routing, String queue, MessageProcess<?> messageProcess, int consumeNum);
+
+    /**
+     * 消费者建立，消费者数量根据队列积压、处理耗时和机器负载在minConsumers和maxConsumers之间自动调整
+     *
+     * @param exchange
+     * @param routing
+     * @param queue
+     * @param messageProcess
+     * @param minConsumers
+     * @param maxConsumers
+     */
+    void consumeElastic(String exchange, String routing, String queue, MessageProcess<?> messageProcess,
+                        int minConsumers, int maxConsumers);
+
+    /**
+     * 异步处理的消费者建立，消费者数、预取数、处理线程数使用默认配置
+     *
+     * @param exchange
+     * @param routing
+     * @param queue
+     * @param messageProcess
+     */
+    void consumeOffloaded(String exchange, String routing, String queue, MessageProcess<?> messageProcess);
+
+    /**
+     * 异步处理的消费者建立，少量AMQP消费者接收消息，交给处理线程池处理，适用于处理时阻塞在网络/数据库调用上的业务
+     * 每条消息处理完成后单独确认
+     *
+     * @param exchange
+     * @param routing
+     * @param queue
+     * @param messageProcess
+     * @param consumeNum     AMQP消费者数量
+     * @param prefetchCount  每个消费者的预取数，即每个channel上同时处理的消息数
+     * @param threads        处理线程数
+     */
+    void consumeOffloaded(String exchange, String routing, String queue, MessageProcess<?> messageProcess,
+                          int consumeNum, int prefetchCount, int threads);
+
+    /**
+     * 按key保序的并行消费者建立
+     * 一个AMQP消费者接收消息，按key分配到固定数量的串行通道，同一个key的消息按队列顺序处理，不同key的消息并行处理
+     * 注意：处理失败进入延迟重试的消息会排到同一个key后续消息的后面
+     *
+     * @param exchange
+     * @param routing
+     * @param queue
+     * @param messageProcess
+     * @param keyName        顺序key，先取同名消息头，没有时取json消息体中的同名字段，都没有时不保证顺序
+     * @param lanes          串行通道数
+     * @param prefetchCount  预取数，即同时在处理的消息数上限
+     */
+    void consumeOrdered(String exchange, String routing, String queue, MessageProcess<?> messageProcess,
+                        String keyName, int lanes, int prefetchCount);
+
+    /**
+     * 批量消费者建立，预取数、每批条数使用默认配置，消费者数量按CPU核数
+     *
+     * @param exchange
+     * @param routing
+     * @param queue
+     * @param batchMessageProcess
+     */
+    void consumeBatch(String exchange, String routing, String queue, BatchMessageProcess<?> batchMessageProcess);
+
+    /**
+     * 批量消费者建立，每批消息处理后用一次basicAck(multiple=true)确认，失败的消息逐条nack
+     *
+     * @param exchange
+     * @param routing
+     * @param queue
+     * @param batchMessageProcess
+     * @param consumeNum
+     * @param prefetchCount 每个消费者的预取数，小于batchSize时按batchSize
+     * @param batchSize     每批条数
+     */
+    void consumeBatch(String exchange, String routing, String queue, BatchMessageProcess<?> batchMessageProcess,
+                      int consumeNum, int prefetchCount, int batchSize);
 }
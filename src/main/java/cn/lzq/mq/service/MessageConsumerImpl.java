@@ -2,139 +2,882 @@ package cn.lzq.mq.service;
 
 import cn.lzq.mq.common.Action;
 import cn.lzq.mq.dao.MQRedisDao;
+import com.alibaba.fastjson.JSON;
 import com.rabbitmq.client.Channel;
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.amqp.core.*;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.ChannelAwareMessageListener;
 import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
-import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
-import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by lianzhiqiang on 2017/7/20.
  */
 @Service
 public class MessageConsumerImpl implements MessageConsumer {
 
+    private static final Logger LOG = LoggerFactory.getLogger(MessageConsumerImpl.class);
+
+    /**
+     * 消息体还没有解码，与解码结果null区分
+     */
+    private static final Object NOT_DECODED = new Object();
+
     @Autowired
     private ConnectionFactory connectionFactory;
 
     @Autowired
     protected MQRedisDao redisDao;
 
-    @Override
-    public void consume(String exchangeName, String routing, String queueName, MessageProcess messageProcess) {
+    @Autowired
+    private LocalDedupCache localDedupCache;
 
-        RabbitAdmin rabbitAdmin = new RabbitAdmin(connectionFactory);
+    @Autowired
+    private MessageDeduplicator messageDeduplicator;
 
-        TopicExchange topicExchange = new TopicExchange(exchangeName);
-        rabbitAdmin.declareExchange(topicExchange);
+    @Autowired
+    private RetryQueueManager retryQueueManager;
 
-        Queue queue = new Queue(queueName);
-        rabbitAdmin.declareQueue(queue);
+    @Autowired
+    private DeadLetterService deadLetterService;
 
-        Binding binding = BindingBuilder.bind(queue).to(topicExchange).with(routing);
-        rabbitAdmin.declareBinding(binding);
+    @Autowired
+    private ConsumerAutoscaler consumerAutoscaler;
+
+    @Autowired
+    private ConsumerRegistry consumerRegistry;
+
+    @Autowired
+    private MessagePayloadDecoder messagePayloadDecoder;
+
+    /**
+     * 批量消费默认预取数
+     */
+    @Value("${mq.consumer.batch.prefetch:250}")
+    private int defaultBatchPrefetch;
+
+    /**
+     * 批量消费默认每批条数
+     */
+    @Value("${mq.consumer.batch.size:50}")
+    private int defaultBatchSize;
+
+    /**
+     * 不足一批时最多等待的时间
+     */
+    @Value("${mq.consumer.batch.maxWaitMs:200}")
+    private long batchMaxWaitMs;
+
+    /**
+     * 异步处理模式默认的AMQP消费者数量
+     */
+    @Value("${mq.consumer.offload.consumers:2}")
+    private int defaultOffloadConsumers;
+
+    /**
+     * 异步处理模式默认每个消费者的预取数
+     */
+    @Value("${mq.consumer.offload.prefetch:250}")
+    private int defaultOffloadPrefetch;
+
+    /**
+     * 异步处理模式默认的处理线程数
+     */
+    @Value("${mq.consumer.offload.threads:500}")
+    private int defaultOffloadThreads;
+
+    @Value("${mq.consumer.shutdownTimeoutMs:30000}")
+    private long offloadShutdownTimeoutMs;
+
+    /**
+     * redis的部署模式，决定去重key的格式
+     */
+    @Value("${mq.redis.mode:standalone}")
+    private String redisMode;
+
+    @Override
+    public void consume(String exchangeName, String routing, String queueName, MessageProcess<?> messageProcess) {
+        consume(exchangeName, routing, queueName, messageProcess, Runtime.getRuntime().availableProcessors());//按照jvmCPU核数配置
+    }
+
+    @Override
+    public void consume(String exchangeName, String routing, String queueName, MessageProcess<?> messageProcess, int consumeNum) {
+        // 同一个队列只启动一个容器，运行中的容器通过ConsumerRegistry调整
+        if (consumerRegistry.contains(queueName)) {
+            return;
+        }
+        Queue queue = declareQueue(exchangeName, routing, queueName);
 
         SimpleMessageListenerContainer container = new SimpleMessageListenerContainer(connectionFactory);
         container.setQueues(queue);
         container.setExposeListenerChannel(true);
         container.setPrefetchCount(1);
-        container.setConcurrentConsumers(Runtime.getRuntime().availableProcessors());//按照jvmCPU核数配置
+        container.setConcurrentConsumers(consumeNum);
         container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        if (!consumerRegistry.register(queueName, container, 1, ConsumerMode.SIMPLE)) {
+            return;
+        }
         container.setMessageListener(getMessageListener(messageProcess));
 
         container.start();
     }
 
     @Override
-    public void consume(String exchangeName, String routing, String queueName, MessageProcess messageProcess, int consumeNum) {
-        RabbitAdmin rabbitAdmin = new RabbitAdmin(connectionFactory);
+    public void consumeElastic(String exchangeName, String routing, String queueName, MessageProcess<?> messageProcess,
+                               int minConsumers, int maxConsumers) {
+        if (consumerRegistry.contains(queueName)) {
+            return;
+        }
+        Queue queue = declareQueue(exchangeName, routing, queueName);
 
-        TopicExchange topicExchange = new TopicExchange(exchangeName);
-        rabbitAdmin.declareExchange(topicExchange);
+        SimpleMessageListenerContainer container = new SimpleMessageListenerContainer(connectionFactory);
+        container.setQueues(queue);
+        container.setExposeListenerChannel(true);
+        // 预取数保持为1，积压的消息留在队列中，队列长度才能反映真实积压
+        container.setPrefetchCount(1);
+        container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        if (!consumerRegistry.register(queueName, container, 1, ConsumerMode.ELASTIC)) {
+            return;
+        }
+        // 消费者数量由ConsumerAutoscaler调整
+        container.setMessageListener(consumerAutoscaler.register(queueName, container,
+                getMessageListener(messageProcess), minConsumers, maxConsumers));
 
-        Queue queue = new Queue(queueName);
-        rabbitAdmin.declareQueue(queue);
+        container.start();
+    }
 
-        Binding binding = BindingBuilder.bind(queue).to(topicExchange).with(routing);
-        rabbitAdmin.declareBinding(binding);
+    @Override
+    public void consumeOffloaded(String exchangeName, String routing, String queueName, MessageProcess<?> messageProcess) {
+        consumeOffloaded(exchangeName, routing, queueName, messageProcess,
+                defaultOffloadConsumers, defaultOffloadPrefetch, defaultOffloadThreads);
+    }
 
-        SimpleMessageListenerContainer container = new SimpleMessageListenerContainer(connectionFactory);
+    @Override
+    public void consumeOffloaded(String exchangeName, String routing, String queueName, MessageProcess<?> messageProcess,
+                                 int consumeNum, int prefetchCount, int threads) {
+        if (consumerRegistry.contains(queueName)) {
+            return;
+        }
+        Queue queue = declareQueue(exchangeName, routing, queueName);
+
+        SimpleMessageListenerContainer container = new OffloadedMessageListenerContainer();
         container.setQueues(queue);
         container.setExposeListenerChannel(true);
-        container.setPrefetchCount(1);
+        // 预取数决定每个channel上同时在处理的消息数
+        container.setPrefetchCount(prefetchCount);
         container.setConcurrentConsumers(consumeNum);
         container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
-        container.setMessageListener(getMessageListener(messageProcess));
+        if (!consumerRegistry.register(queueName, container, 1, ConsumerMode.OFFLOADED)) {
+            return;
+        }
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new CustomizableThreadFactory("mq-process-" + queueName + "-"));
+        executor.allowCoreThreadTimeOut(true);
+        consumerRegistry.addStopHook(queueName, new Runnable() {
+            @Override
+            public void run() {
+                // 容器停止时已等待在途消息，超时仍未处理完的消息channel已关闭，确认会失败，由broker重新投递后去重
+                executor.shutdown();
+                try {
+                    executor.awaitTermination(offloadShutdownTimeoutMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        // 在途消息上限为 消费者数*预取数，与broker的预取限制一致，运行中不能调整消费者数量和预取数
+        container.setMessageListener(new OffloadedMessageListener(getMessageListener(messageProcess), consumeNum * prefetchCount) {
+            @Override
+            protected void dispatch(Message message, Object payload, Runnable task) {
+                executor.execute(task);
+            }
+        });
 
         container.start();
     }
 
+    @Override
+    public void consumeOrdered(String exchangeName, String routing, String queueName, MessageProcess<?> messageProcess,
+                               final String keyName, int lanes, int prefetchCount) {
+        if (consumerRegistry.contains(queueName)) {
+            return;
+        }
+        Queue queue = declareQueue(exchangeName, routing, queueName);
 
-    private ChannelAwareMessageListener getMessageListener(final MessageProcess messageProcess) {
-        return new ChannelAwareMessageListener() {
+        SimpleMessageListenerContainer container = new OffloadedMessageListenerContainer();
+        container.setQueues(queue);
+        container.setExposeListenerChannel(true);
+        container.setPrefetchCount(prefetchCount);
+        // 只有一个AMQP消费者才能按队列顺序收到消息，并行由分道执行提供
+        container.setConcurrentConsumers(1);
+        container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        if (!consumerRegistry.register(queueName, container, 1, ConsumerMode.ORDERED)) {
+            return;
+        }
+        final KeyedLaneExecutor laneExecutor = new KeyedLaneExecutor(lanes, "mq-lane-" + queueName + "-");
+        consumerRegistry.addStopHook(queueName, new Runnable() {
             @Override
-            public void onMessage(Message message, Channel channel) throws Exception {
-                Action action = Action.RETRY;
-                MessageConverter messageConverter = new Jackson2JsonMessageConverter();
-                Object messageBean = messageConverter.fromMessage(message);
-                String queueName = null;
-                String messageId = null;
-                if (messageBean != null) {
-                    queueName = message.getMessageProperties().getConsumerQueue();
-                    messageId = message.getMessageProperties().getMessageId();
+            public void run() {
+                laneExecutor.shutdown();
+                try {
+                    laneExecutor.awaitTermination(offloadShutdownTimeoutMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final ProcessMessageListener delegate = getMessageListener(messageProcess);
+        container.setMessageListener(new OffloadedMessageListener(delegate, prefetchCount) {
+            @Override
+            protected Object prepare(Message message) {
+                // 消息头中没有顺序key时需要解码消息体取key，解码结果交给处理线程
+                if (message.getMessageProperties().getHeaders().get(keyName) != null) {
+                    return NOT_DECODED;
                 }
-
                 try {
-                    // 去重操作，每个队列里面的消息处理成功后，放入redis。
-                    // 每次消费消息的时候，先查询redis判断是否存在，存在则不处理，否则正常处理
-                    if (StringUtils.isNotBlank(messageId) && StringUtils.isNotBlank(queueName)) {
-                        if (redisDao.existKey(queueName + "_" + messageId)) {
-                            channel.basicAck(message.getMessageProperties().getDeliveryTag(), true);
+                    return delegate.decode(message);
+                } catch (Exception e) {
+                    // 处理线程上再次解码失败后拒绝
+                    LOG.warn("decode message error, queue: " + message.getMessageProperties().getConsumerQueue(), e);
+                    return NOT_DECODED;
+                }
+            }
+
+            @Override
+            protected void dispatch(Message message, Object payload, Runnable task) {
+                laneExecutor.execute(orderingKey(message, payload, keyName), task);
+            }
+        });
+
+        container.start();
+    }
+
+    /**
+     * 取消息的顺序key，先取消息头，没有时取已解码的消息体中的字段
+     * 消息体为Map（包括JSONObject）时取key，为json字符串时解析后取key，其他类型取同名属性
+     *
+     * @param message
+     * @param payload 已解码的消息体，NOT_DECODED表示未解码或解码失败
+     * @param keyName
+     * @return 没有key时返回null
+     */
+    private static String orderingKey(Message message, Object payload, String keyName) {
+        Object header = message.getMessageProperties().getHeaders().get(keyName);
+        if (header != null) {
+            return header.toString();
+        }
+        if (payload == null || payload == NOT_DECODED) {
+            return null;
+        }
+        try {
+            Object key;
+            if (payload instanceof Map) {
+                key = ((Map<?, ?>) payload).get(keyName);
+            } else if (payload instanceof String) {
+                key = JSON.parseObject((String) payload).get(keyName);
+            } else {
+                BeanWrapper beanWrapper = new BeanWrapperImpl(payload);
+                key = beanWrapper.isReadableProperty(keyName) ? beanWrapper.getPropertyValue(keyName) : null;
+            }
+            return key == null ? null : key.toString();
+        } catch (Exception e) {
+            LOG.warn("parse ordering key error, queue: " + message.getMessageProperties().getConsumerQueue(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 去重key
+     * 集群模式下队列名作为hash tag，同一队列的去重key位于同一个slot，批量去重可以按slot合并；
+     * 单节点模式保持原来的格式，升级时已有的去重记录仍然有效
+     *
+     * @param queueName
+     * @param messageId
+     * @return
+     */
+    private String dedupKey(String queueName, String messageId) {
+        return "cluster".equals(redisMode) ? "{" + queueName + "}_" + messageId : queueName + "_" + messageId;
+    }
+
+    @Override
+    public void consumeBatch(String exchangeName, String routing, String queueName, BatchMessageProcess<?> batchMessageProcess) {
+        consumeBatch(exchangeName, routing, queueName, batchMessageProcess,
+                Runtime.getRuntime().availableProcessors(), defaultBatchPrefetch, defaultBatchSize);
+    }
+
+    @Override
+    public void consumeBatch(String exchangeName, String routing, String queueName, BatchMessageProcess<?> batchMessageProcess,
+                             int consumeNum, int prefetchCount, int batchSize) {
+        if (consumerRegistry.contains(queueName)) {
+            return;
+        }
+        Queue queue = declareQueue(exchangeName, routing, queueName);
+
+        final BatchMessageListener listener = new BatchMessageListener(queueName, batchMessageProcess, batchSize);
+        // 定时处理随容器启动、停止，暂停、调整预取数和停止消费时都会停止容器
+        SimpleMessageListenerContainer container = new SimpleMessageListenerContainer(connectionFactory) {
+            @Override
+            protected void doStart() throws Exception {
+                super.doStart();
+                listener.startFlushTask();
+            }
+
+            @Override
+            protected void doStop() {
+                listener.stopFlushTask();
+                super.doStop();
+                // 未处理的消息所在的channel已关闭，由broker重新投递
+                listener.clearBatches();
+            }
+        };
+        container.setQueues(queue);
+        container.setExposeListenerChannel(true);
+        // 预取数不能小于批大小，否则一批永远凑不满
+        container.setPrefetchCount(Math.max(prefetchCount, batchSize));
+        container.setTxSize(batchSize);
+        container.setConcurrentConsumers(consumeNum);
+        container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        if (!consumerRegistry.register(queueName, container, batchSize, ConsumerMode.BATCH)) {
+            listener.shutdown();
+            return;
+        }
+        consumerRegistry.addStopHook(queueName, new Runnable() {
+            @Override
+            public void run() {
+                listener.shutdown();
+            }
+        });
+        container.setMessageListener(listener);
+
+        container.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        // 停止消费，异步处理的容器停止前先取消消费者，等待在途消息处理完成后才关闭channel，
+        // 之后由登记的清理关闭各队列的处理线程池和批量消费的定时处理
+        consumerRegistry.stopAll();
+    }
+
+    private Queue declareQueue(String exchangeName, String routing, String queueName) {
+        RabbitAdmin rabbitAdmin = new RabbitAdmin(connectionFactory);
+
+        TopicExchange topicExchange = new TopicExchange(exchangeName);
+        rabbitAdmin.declareExchange(topicExchange);
+
+        // 被拒绝的消息进入死信队列
+        Map<String, Object> arguments = deadLetterService.declareDeadLetterQueue(rabbitAdmin, queueName);
+        Queue queue = new Queue(queueName, true, false, false, arguments);
+        rabbitAdmin.declareQueue(queue);
+
+        Binding binding = BindingBuilder.bind(queue).to(topicExchange).with(routing);
+        rabbitAdmin.declareBinding(binding);
+
+        retryQueueManager.declareRetryQueues(rabbitAdmin, queueName);
+        return queue;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ProcessMessageListener getMessageListener(MessageProcess<?> process) {
+        return new ProcessMessageListener((MessageProcess<Object>) process);
+    }
+
+    /**
+     * 逐条处理监听，去重后解码消息体并调用业务处理，在finally中确认
+     */
+    private class ProcessMessageListener implements ChannelAwareMessageListener {
+
+        private final MessageProcess<Object> messageProcess;
+
+        private final Type payloadType;
+
+        ProcessMessageListener(MessageProcess<Object> messageProcess) {
+            this.messageProcess = messageProcess;
+            this.payloadType = messagePayloadDecoder.payloadType(messageProcess, MessageProcess.class);
+        }
+
+        /**
+         * 解码为业务处理声明的类型
+         *
+         * @param message
+         * @return
+         */
+        Object decode(Message message) {
+            return messagePayloadDecoder.decode(message, payloadType);
+        }
+
+        @Override
+        public void onMessage(Message message, Channel channel) throws Exception {
+            onMessage(message, channel, NOT_DECODED);
+        }
+
+        /**
+         * @param message
+         * @param channel
+         * @param payload 消费者线程上已解码的消息体，NOT_DECODED表示去重后再解码
+         * @throws Exception
+         */
+        void onMessage(Message message, Channel channel, Object payload) throws Exception {
+            Action action = Action.RETRY;
+            String queueName = message.getMessageProperties().getConsumerQueue();
+            String messageId = message.getMessageProperties().getMessageId();
+
+            try {
+                // 去重操作，每个队列里面的消息处理成功后，放入redis。
+                // 每次消费消息的时候，先查询redis判断是否存在，存在则不处理，否则正常处理
+                if (StringUtils.isNotBlank(messageId) && StringUtils.isNotBlank(queueName)) {
+                    // 先查本地缓存，未命中再由去重策略判断
+                    if (localDedupCache.contains(dedupKey(queueName, messageId))
+                            || !messageDeduplicator.tryAcquire(dedupKey(queueName, messageId), messageId)) {
+                        // 由finally确认，不能在这里确认后再被finally nack一次
+                        action = Action.ACCEPT;
+                    } else {
+                        // 重复消息不需要解码，解码失败与处理异常一样拒绝
+                        boolean isSuccess = messageProcess.process(payload != NOT_DECODED ? payload : decode(message));
+                        if (isSuccess) {
+                            localDedupCache.add(dedupKey(queueName, messageId));
+                            messageDeduplicator.complete(Collections.singletonList(dedupKey(queueName, messageId)));
+                            action = Action.ACCEPT;
                         } else {
-                            // 开始处理消息，加入redis
-                            redisDao.setStringEx(queueName + "_" + messageId, 60, messageId);
-                            boolean isSuccess = messageProcess.process(messageBean.toString());
-                            if (isSuccess) {
-                                action = Action.ACCEPT;
-                            } else {
-                                // 处理失败，从redis里面删除
-                                redisDao.del(queueName + "_" + messageId);
-                                String key = "retry_" + queueName + "_" + messageId;
-                                if (redisDao.existKey(key)) {
-                                    if (Integer.valueOf(redisDao.getString(key)) >= 3) {
-                                        action = Action.REJECT;
-                                    } else {
-                                        redisDao.incr(key);
-                                        action = Action.RETRY;
-                                    }
-                                } else {
-                                    redisDao.setString(key, "0");
-                                    action = Action.RETRY;
-                                }
-                            }
+                            // 处理失败，从redis里面删除，等待延迟重试
+                            messageDeduplicator.release(dedupKey(queueName, messageId));
+                            action = Action.RETRY;
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                // 处理失败，从redis里面删除
+                if (StringUtils.isNotBlank(messageId) && StringUtils.isNotBlank(queueName)) {
+                    messageDeduplicator.release(dedupKey(queueName, messageId));
+                }
+                action = Action.REJECT;
+            } finally {
+                if (action == Action.RETRY) {
+                    // 发送到延迟重试队列后确认原消息，避免失败的消息立即回到队头反复消费
+                    action = retryQueueManager.retry(message);
+                }
+                // 通过finally块来保证Ack/Nack会且只会执行一次
+                // 只确认当前消息，异步处理时同一个channel上的消息会乱序完成
+                if (action == Action.ACCEPT) {
+                    channel.basicAck(message.getMessageProperties().getDeliveryTag(), false);
+                } else if (action == Action.RETRY) {
+                    channel.basicNack(message.getMessageProperties().getDeliveryTag(), false, true);
+                } else {
+                    channel.basicNack(message.getMessageProperties().getDeliveryTag(), false, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * 异步处理的容器
+     * 停止时先取消消费者并等待在途消息处理完成（最多shutdownTimeoutMs），再由父类关闭channel，
+     * 否则整个窗口的消息都会在channel关闭后被broker重新投递；暂停、调整预取数和停止消费都经过这里
+     */
+    private class OffloadedMessageListenerContainer extends SimpleMessageListenerContainer {
+
+        OffloadedMessageListenerContainer() {
+            super(connectionFactory);
+        }
+
+        @Override
+        protected void doStart() throws Exception {
+            if (getMessageListener() instanceof OffloadedMessageListener) {
+                ((OffloadedMessageListener) getMessageListener()).open();
+            }
+            super.doStart();
+        }
+
+        @Override
+        protected void doStop() {
+            if (getMessageListener() instanceof OffloadedMessageListener) {
+                ((OffloadedMessageListener) getMessageListener()).drain(offloadShutdownTimeoutMs);
+            }
+            super.doStop();
+        }
+    }
+
+    /**
+     * 异步处理监听
+     * 消费者线程只把消息交给处理线程，处理完成后在处理线程上逐条确认，同一个channel上的消息乱序确认
+     * 在途消息数受窗口限制，窗口满时阻塞消费者线程
+     */
+    private abstract class OffloadedMessageListener implements ChannelAwareMessageListener {
+
+        private final ProcessMessageListener delegate;
+
+        private final int windowSize;
+
+        private final Semaphore window;
+
+        /**
+         * 收到过消息的消费者，consumerTag -> channel，停止时用于取消消费者
+         */
+        private final ConcurrentMap<String, Channel> consumers = new ConcurrentHashMap<String, Channel>();
+
+        private volatile boolean draining;
+
+        OffloadedMessageListener(ProcessMessageListener delegate, int window) {
+            this.delegate = delegate;
+            this.windowSize = window;
+            this.window = new Semaphore(window);
+        }
+
+        /**
+         * 容器启动时调用，重新开始接收消息
+         */
+        void open() {
+            consumers.clear();
+            draining = false;
+        }
+
+        /**
+         * 容器停止前调用：取消所有消费者，不再开始处理新的消息，然后等待在途消息处理完成
+         * 取消后仍在消费者线程中的消息不处理也不确认，channel关闭后由broker重新投递
+         *
+         * @param timeoutMs 最长等待时间
+         */
+        void drain(long timeoutMs) {
+            draining = true;
+            for (Map.Entry<String, Channel> entry : consumers.entrySet()) {
+                cancel(entry.getKey(), entry.getValue());
+            }
+            try {
+                if (window.tryAcquire(windowSize, timeoutMs, TimeUnit.MILLISECONDS)) {
+                    window.release(windowSize);
+                } else {
+                    LOG.warn("offloaded messages not finished in " + timeoutMs + "ms, in flight: "
+                            + (windowSize - window.availablePermits()));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * 只取消消费者，不关闭channel，在途消息仍可以在该channel上确认
+         * 之后容器停止时会再取消一次，客户端找不到consumerTag的异常由容器忽略
+         */
+        private void cancel(String consumerTag, Channel channel) {
+            try {
+                channel.basicCancel(consumerTag);
+            } catch (Exception e) {
+                LOG.debug("cancel consumer error, consumerTag: " + consumerTag, e);
+            }
+        }
+
+        /**
+         * 在消费者线程上预先解码消息体，解码结果交给处理线程，不再重复解码
+         *
+         * @param message
+         * @return 默认不解码，返回NOT_DECODED
+         */
+        protected Object prepare(Message message) {
+            return NOT_DECODED;
+        }
+
+        /**
+         * 把处理任务交给处理线程
+         *
+         * @param message
+         * @param payload prepare的结果
+         * @param task
+         */
+        protected abstract void dispatch(Message message, Object payload, Runnable task);
+
+        @Override
+        public void onMessage(final Message message, final Channel channel) throws Exception {
+            String consumerTag = message.getMessageProperties().getConsumerTag();
+            if (consumerTag != null && consumers.putIfAbsent(consumerTag, channel) == null && draining) {
+                // 停止过程中第一次收到消息的消费者
+                cancel(consumerTag, channel);
+            }
+            if (draining) {
+                return;
+            }
+            window.acquire();
+            if (draining) {
+                // 窗口满时等待期间开始停止
+                window.release();
+                return;
+            }
+            try {
+                final Object payload = prepare(message);
+                dispatch(message, payload, new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            // channel的方法调用在客户端内部串行发送，多个处理线程可以在同一个channel上确认
+                            delegate.onMessage(message, channel, payload);
+                        } catch (Exception e) {
+                            LOG.warn("offloaded message process error, queue: "
+                                    + message.getMessageProperties().getConsumerQueue(), e);
+                        } finally {
+                            window.release();
                         }
                     }
+                });
+            } catch (RejectedExecutionException e) {
+                window.release();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 批量消费监听
+     * 每个消费者channel攒一批消息，满batchSize或等待超过maxWaitMs后一起去重、处理，
+     * 需要重试的消息发送到延迟重试队列，不再重试的消息逐条nack，
+     * 成功、重复和已发送到重试队列的消息用一次basicAck(multiple=true)确认
+     */
+    private class BatchMessageListener implements ChannelAwareMessageListener {
+
+        private final BatchMessageProcess<Object> batchMessageProcess;
+
+        private final Type payloadType;
+
+        private final int batchSize;
+
+        private final ConcurrentMap<Channel, MessageBatch> batches = new ConcurrentHashMap<Channel, MessageBatch>();
+
+        /**
+         * 每个队列一个定时处理线程，一个队列的业务处理较慢时不影响其他队列，空闲时线程退出
+         */
+        private final ScheduledThreadPoolExecutor flushExecutor;
+
+        private ScheduledFuture<?> flushTask;
+
+        @SuppressWarnings("unchecked")
+        BatchMessageListener(String queueName, BatchMessageProcess<?> batchMessageProcess, int batchSize) {
+            this.batchMessageProcess = (BatchMessageProcess<Object>) batchMessageProcess;
+            this.payloadType = messagePayloadDecoder.payloadType(batchMessageProcess, BatchMessageProcess.class);
+            this.batchSize = batchSize;
+            this.flushExecutor = new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory("mq-batch-flush-" + queueName + "-"));
+            flushExecutor.setKeepAliveTime(60, TimeUnit.SECONDS);
+            flushExecutor.allowCoreThreadTimeOut(true);
+            flushExecutor.setRemoveOnCancelPolicy(true);
+        }
+
+        synchronized void startFlushTask() {
+            if (flushTask == null) {
+                flushTask = flushExecutor.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushExpired();
+                    }
+                }, batchMaxWaitMs, batchMaxWaitMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        synchronized void stopFlushTask() {
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+        }
+
+        void clearBatches() {
+            batches.clear();
+        }
+
+        void shutdown() {
+            stopFlushTask();
+            flushExecutor.shutdown();
+        }
+
+        @Override
+        public void onMessage(Message message, Channel channel) throws Exception {
+            MessageBatch batch = batches.get(channel);
+            if (batch == null) {
+                MessageBatch created = new MessageBatch(channel);
+                batch = batches.putIfAbsent(channel, created);
+                if (batch == null) {
+                    batch = created;
+                }
+            }
+            synchronized (batch) {
+                if (batch.messages.isEmpty()) {
+                    batch.firstArrival = System.currentTimeMillis();
+                }
+                batch.messages.add(message);
+                if (batch.messages.size() >= batchSize) {
+                    flush(batch);
+                }
+            }
+        }
+
+        /**
+         * 消息不足一批时，由定时任务处理等待超时的批次
+         */
+        private void flushExpired() {
+            long deadline = System.currentTimeMillis() - batchMaxWaitMs;
+            for (MessageBatch batch : batches.values()) {
+                synchronized (batch) {
+                    if (!batch.messages.isEmpty() && batch.firstArrival <= deadline) {
+                        flush(batch);
+                    }
+                }
+                if (!batch.channel.isOpen()) {
+                    // 消费者重启后旧channel上未确认的消息会被broker重新投递
+                    batches.remove(batch.channel, batch);
+                }
+            }
+        }
+
+        private void flush(MessageBatch batch) {
+            List<Message> messages = new ArrayList<Message>(batch.messages);
+            batch.messages.clear();
+            try {
+                processBatch(messages, batch.channel);
+            } catch (Exception e) {
+                LOG.error("batch consume error, queue: " + messages.get(0).getMessageProperties().getConsumerQueue(), e);
+            }
+        }
+
+        private void processBatch(List<Message> messages, Channel channel) throws IOException {
+            int size = messages.size();
+            Action[] actions = new Action[size];
+            String[] keys = new String[size];
+            for (int i = 0; i < size; i++) {
+                MessageProperties properties = messages.get(i).getMessageProperties();
+                if (StringUtils.isNotBlank(properties.getMessageId()) && StringUtils.isNotBlank(properties.getConsumerQueue())) {
+                    keys[i] = dedupKey(properties.getConsumerQueue(), properties.getMessageId());
+                }
+            }
+
+            // 去重，先查本地缓存，未命中的消息由去重策略一次批量判断
+            List<String> dedupKeys = new ArrayList<String>(size);
+            List<String> messageIds = new ArrayList<String>(size);
+            for (int i = 0; i < size; i++) {
+                if (keys[i] == null) {
+                    // 缺少messageId的消息无法去重，与单条消费一致按RETRY处理
+                    actions[i] = Action.RETRY;
+                } else if (localDedupCache.contains(keys[i])) {
+                    actions[i] = Action.ACCEPT;
+                } else {
+                    dedupKeys.add(keys[i]);
+                    messageIds.add(messages.get(i).getMessageProperties().getMessageId());
+                }
+            }
+            List<Boolean> acquired = dedupKeys.isEmpty() ? Collections.<Boolean>emptyList()
+                    : messageDeduplicator.tryAcquire(dedupKeys, messageIds);
+            List<Object> payloads = new ArrayList<Object>(size);
+            List<Integer> indexes = new ArrayList<Integer>(size);
+            int k = 0;
+            for (int i = 0; i < size; i++) {
+                if (actions[i] != null) {
+                    continue;
+                }
+                if (!acquired.get(k++)) {
+                    actions[i] = Action.ACCEPT;
+                    continue;
+                }
+                try {
+                    payloads.add(messagePayloadDecoder.decode(messages.get(i), payloadType));
+                } catch (RuntimeException e) {
+                    LOG.error("decode message error, queue: " + messages.get(i).getMessageProperties().getConsumerQueue(), e);
+                    messageDeduplicator.release(keys[i]);
+                    actions[i] = Action.REJECT;
+                    continue;
+                }
+                indexes.add(i);
+            }
+
+            if (!payloads.isEmpty()) {
+                List<Action> results;
+                try {
+                    results = batchMessageProcess.process(payloads);
+                    if (results == null || results.size() != payloads.size()) {
+                        results = Collections.nCopies(payloads.size(), Action.RETRY);
+                    }
                 } catch (Exception e) {
-                    // 处理失败，从redis里面删除
-                    redisDao.del(queueName + "_" + messageId);
-                    action = Action.REJECT;
-                } finally {
-                    // 通过finally块来保证Ack/Nack会且只会执行一次
-                    if (action == Action.ACCEPT) {
-                        channel.basicAck(message.getMessageProperties().getDeliveryTag(), true);
-                    } else if (action == Action.RETRY) {
-                        channel.basicNack(message.getMessageProperties().getDeliveryTag(), false, true);
+                    LOG.error("batch message process error", e);
+                    results = Collections.nCopies(payloads.size(), Action.REJECT);
+                }
+                List<String> completed = new ArrayList<String>(indexes.size());
+                for (int j = 0; j < indexes.size(); j++) {
+                    int i = indexes.get(j);
+                    Action result = results.get(j) == null ? Action.RETRY : results.get(j);
+                    if (result == Action.ACCEPT) {
+                        localDedupCache.add(keys[i]);
+                        completed.add(keys[i]);
                     } else {
-                        channel.basicNack(message.getMessageProperties().getDeliveryTag(), false, false);
+                        // 处理失败，从redis里面删除
+                        messageDeduplicator.release(keys[i]);
                     }
+                    actions[i] = result;
                 }
+                messageDeduplicator.complete(completed);
             }
-        };
+
+            // 需要重试的消息一起发送到延迟重试队列，发送成功的原消息随成功的消息一起确认
+            List<Integer> retryIndexes = new ArrayList<Integer>();
+            List<Message> retryMessages = new ArrayList<Message>();
+            for (int i = 0; i < size; i++) {
+                if (actions[i] == Action.RETRY) {
+                    retryIndexes.add(i);
+                    retryMessages.add(messages.get(i));
+                }
+            }
+            if (!retryMessages.isEmpty()) {
+                List<Action> retryActions = retryQueueManager.retry(retryMessages);
+                for (int j = 0; j < retryIndexes.size(); j++) {
+                    actions[retryIndexes.get(j)] = retryActions.get(j);
+                }
+            }
+
+            // 失败的消息逐条nack，成功的消息最后一次性确认
+            long lastAcceptTag = -1L;
+            for (int i = 0; i < size; i++) {
+                long deliveryTag = messages.get(i).getMessageProperties().getDeliveryTag();
+                if (actions[i] == Action.ACCEPT) {
+                    lastAcceptTag = Math.max(lastAcceptTag, deliveryTag);
+                } else {
+                    channel.basicNack(deliveryTag, false, actions[i] == Action.RETRY);
+                }
+            }
+            if (lastAcceptTag > 0) {
+                channel.basicAck(lastAcceptTag, true);
+            }
+        }
+    }
+
+    private static class MessageBatch {
+
+        private final Channel channel;
+
+        private final List<Message> messages = new ArrayList<Message>();
+
+        private long firstArrival;
+
+        MessageBatch(Channel channel) {
+            this.channel = channel;
+        }
     }
 }
@@ -0,0 +1,46 @@
+package cn.lzq.mq.service;
+
+import java.util.List;
+
+/**
+ * 消费去重策略，通过mq.consumer.dedup.mode选择
+ * exact：每条消息一个redis key，精确去重（默认）
+ * bloom：按时间窗口轮换的布隆过滤器，内存固定，有可控的误判率
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public interface MessageDeduplicator {
+
+    /**
+     * 处理前调用，判断消息是否需要处理
+     *
+     * @param key       队列名_消息id
+     * @param messageId
+     * @return true:需要处理，false:重复消息
+     */
+    boolean tryAcquire(String key, String messageId);
+
+    /**
+     * 批量判断，只访问一次redis
+     *
+     * @param keys
+     * @param messageIds 与keys一一对应
+     * @return 与keys一一对应
+     */
+    List<Boolean> tryAcquire(List<String> keys, List<String> messageIds);
+
+    /**
+     * 处理成功后调用
+     *
+     * @param keys
+     */
+    void complete(List<String> keys);
+
+    /**
+     * 处理失败且不再重试时调用，撤销tryAcquire的登记
+     *
+     * @param key
+     */
+    void release(String key);
+}
@@ -0,0 +1,76 @@
+package cn.lzq.mq.service;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.ResolvableType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 消息体解码，直接从byte[]解码为业务处理声明的类型，每条消息只解析一次
+ * 按消息的content-type选择PayloadCodec，没有content-type时按json解码
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class MessagePayloadDecoder {
+
+    @Autowired
+    private PayloadCodecRegistry payloadCodecRegistry;
+
+    private final ConcurrentMap<Class<?>, Type> payloadTypes = new ConcurrentHashMap<Class<?>, Type>();
+
+    /**
+     * 业务处理声明的消息类型，按处理类缓存，未声明泛型时为String
+     * 泛型参数在父类中声明时（如 class OrderProcess extends BaseProcess<Order>）取解析后的类型，此时嵌套的泛型参数丢失
+     *
+     * @param process     MessageProcess或BatchMessageProcess的实现
+     * @param processType MessageProcess.class或BatchMessageProcess.class
+     * @return
+     */
+    public Type payloadType(Object process, Class<?> processType) {
+        Class<?> processClass = AopUtils.getTargetClass(process);
+        Type type = payloadTypes.get(processClass);
+        if (type == null) {
+            ResolvableType generic = ResolvableType.forClass(processClass).as(processType).getGeneric(0);
+            if (generic.resolve() == null) {
+                type = String.class;
+            } else if (generic.getType() instanceof TypeVariable) {
+                // 处理类继承泛型基类时，getType是基类声明的类型变量，取解析后的实际类型
+                type = generic.resolve();
+            } else {
+                type = generic.getType();
+            }
+            payloadTypes.putIfAbsent(processClass, type);
+        }
+        return type;
+    }
+
+    /**
+     * 按消息的content-type解码消息体
+     *
+     * @param message
+     * @param type    目标类型
+     * @return 消息体为空时返回null
+     */
+    public <T> T decode(Message message, Type type) {
+        byte[] body = message.getBody();
+        if (body == null || body.length == 0) {
+            return null;
+        }
+        String contentType = message.getMessageProperties().getContentType();
+        try {
+            return payloadCodecRegistry.getCodec(contentType).decode(body, type);
+        } catch (IOException e) {
+            throw new MessageConversionException("decode message error, content type: " + contentType, e);
+        }
+    }
+}
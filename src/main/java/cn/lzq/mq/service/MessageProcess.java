@@ -3,7 +3,9 @@ package cn.lzq.mq.service;
 
 /**
  * Created by lianzhiqiang on 2017/7/5.
+ *
+ * @param <T> 消息类型，消息体直接解码为该类型；未声明时为String，即消息原文
  */
-public interface MessageProcess {
-    boolean process(String message) throws Exception;
+public interface MessageProcess<T> {
+    boolean process(T message) throws Exception;
 }
@@ -25,4 +25,16 @@ public interface MessageProducer {
      * @return
      */
     boolean sendBySimple(String exchange, String routing, String message);
+
+    /**
+     * 定时发送，消息暂存在redis中，到达发送时间后发送并等待broker确认，不参与数据库事务
+     * 到期消息由打开mq.delayed.enabled的实例发送，至少要有一个实例打开
+     *
+     * @param exchange
+     * @param routing
+     * @param message
+     * @param dueTimeMillis 发送时间，java时间戳（毫秒），已过去的时间立即发送
+     * @return 暂存成功返回true
+     */
+    boolean sendAt(String exchange, String routing, String message, long dueTimeMillis);
 }
@@ -1,20 +1,27 @@
 package cn.lzq.mq.service;
 
 import cn.lzq.mq.common.MQExchangeTypeEnum;
+import cn.lzq.mq.common.MQMessage;
+import cn.lzq.mq.common.MQPublishProfileEnum;
 import cn.lzq.mq.dao.TMessageDao;
 import cn.lzq.mq.transaction.AfterCommitExecutor;
+import cn.lzq.mq.transaction.OutboxPublishTask;
+import cn.lzq.mq.transaction.OutboxWriter;
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageProperties;
-import org.springframework.amqp.rabbit.connection.ConnectionFactory;
-import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.rabbit.support.CorrelationData;
-import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -23,15 +30,38 @@ import java.util.UUID;
 @Service
 public class MessageProducerImpl implements MessageProducer {
 
+    private static final Logger LOG = LoggerFactory.getLogger(MessageProducerImpl.class);
+
     @Autowired
     private TMessageDao tMessageDao;
 
     @Autowired
-    private ConnectionFactory connectionFactory;
+    private OutboxWriter outboxWriter;
+
+    @Autowired
+    private RabbitTemplatePool rabbitTemplatePool;
+
+    @Autowired
+    private OutboxRelayScheduler outboxRelayScheduler;
+
+    /**
+     * 事务提交后直接发送失败时，是否立即由补偿任务重发这些消息，关闭时等到补偿任务的宽限时间之后再重发
+     */
+    @Value("${mq.relay.wakeUpOnSend:true}")
+    private boolean wakeUpOnSend;
+
+    /**
+     * 事务提交后发送等待broker确认的超时时间
+     */
+    @Value("${mq.producer.confirmTimeoutMs:5000}")
+    private long confirmTimeoutMs;
 
     @Autowired
     private AfterCommitExecutor afterCommitExecutor;
 
+    @Autowired
+    private DelayedMessageDispatcher delayedMessageDispatcher;
+
     @Transactional
     @Override
     public boolean send(String exchangeName, String routing, String message) {
@@ -39,52 +69,76 @@ public class MessageProducerImpl implements MessageProducer {
         try {
             String messageId = UUID.randomUUID().toString();
 
-            long time = System.currentTimeMillis();
-            long id = tMessageDao.insert(messageId, message, time, exchangeName, routing, null, MQExchangeTypeEnum.TOPIC.getType());
-
-            RabbitAdmin rabbitAdmin = new RabbitAdmin(connectionFactory);
-
-            RabbitTemplate rabbitTemplate = rabbitAdmin.getRabbitTemplate();
-            rabbitTemplate.setMandatory(true);
-            rabbitTemplate.setMessageConverter(new Jackson2JsonMessageConverter());
-
-            rabbitTemplate.setConfirmCallback(new RabbitTemplate.ConfirmCallback() {
-                @Override
-                public void confirm(CorrelationData correlationData, boolean ack, String cause) {
-                    if (ack) {
-                        tMessageDao.delete(Long.valueOf(correlationData.getId()));
+            MQMessage mqMessage = new MQMessage();
+            mqMessage.setMessageId(messageId);
+            mqMessage.setMessage(message);
+            mqMessage.setCreatedOn(System.currentTimeMillis());
+            mqMessage.setExchangeName(exchangeName);
+            mqMessage.setRoutingKey(routing);
+            mqMessage.setExchangeType(MQExchangeTypeEnum.TOPIC.getType());
+            // 事务提交前与同一事务中的其他消息一起批量写入
+            final List<MQMessage> transactionMessages = outboxWriter.write(mqMessage);
+
+            // 事务中的第一条消息登记提交后的发送任务，提交后整个事务的消息一起发送
+            if (transactionMessages.size() == 1) {
+                afterCommitExecutor.execute(new OutboxPublishTask() {
+                    @Override
+                    public void run() {
+                        //send message to mq
+                        publishBatch(transactionMessages);
                     }
-                }
-            });
-
-
-            MessageProperties messageProperties = new MessageProperties();
-            messageProperties.setMessageId(messageId);
-
-            Message packMessage = rabbitTemplate.getMessageConverter().toMessage(message, messageProperties);
 
-            afterCommitExecutor.execute(new Runnable() {
-                @Override
-                public void run() {
-                    //send message to mq
-                    rabbitTemplate.convertAndSend(exchangeName, routing, packMessage, new CorrelationData(id + ""));
-                    tMessageDao.deleteByStatus(id);
-                }
-            });
+                    @Override
+                    public List<Long> getMessageIds() {
+                        List<Long> ids = new ArrayList<Long>(transactionMessages.size());
+                        for (MQMessage message : transactionMessages) {
+                            ids.add(message.getId());
+                        }
+                        return ids;
+                    }
+                });
+            }
         } catch (Exception e) {
             return false;
         }
         return true;
     }
 
+    /**
+     * 一个事务的消息在同一个channel上发送，只等待一次确认，确认后一次批量删除
+     * 未全部确认时消息保留在消息表中，由补偿任务重发
+     *
+     * @param messages
+     */
+    private void publishBatch(List<MQMessage> messages) {
+        List<OutgoingMessage> outgoingMessages = new ArrayList<OutgoingMessage>(messages.size());
+        List<Long> ids = new ArrayList<Long>(messages.size());
+        MessageConverter messageConverter = rabbitTemplatePool.getMessageConverter();
+        for (MQMessage message : messages) {
+            MessageProperties messageProperties = new MessageProperties();
+            messageProperties.setMessageId(message.getMessageId());
+            Message packMessage = messageConverter.toMessage(message.getMessage(), messageProperties);
+            outgoingMessages.add(new OutgoingMessage(message.getExchangeName(), message.getRoutingKey(), packMessage));
+            ids.add(message.getId());
+        }
+
+        boolean confirmed = false;
+        try {
+            confirmed = rabbitTemplatePool.sendAndWaitForConfirms(outgoingMessages, confirmTimeoutMs);
+        } catch (RuntimeException e) {
+            LOG.error("publish after commit error, message ids: " + ids, e);
+        }
+        if (confirmed) {
+            tMessageDao.deleteBatch(ids);
+        } else if (wakeUpOnSend) {
+            outboxRelayScheduler.retry(ids);
+        }
+    }
+
     @Override
     public boolean sendBySimple(String exchangeName, String routing, String message) {
         try {
-            RabbitAdmin rabbitAdmin = new RabbitAdmin(connectionFactory);
-
-            RabbitTemplate rabbitTemplate = rabbitAdmin.getRabbitTemplate();
-            rabbitTemplate.setMandatory(true);
-            rabbitTemplate.setMessageConverter(new Jackson2JsonMessageConverter());
+            RabbitTemplate rabbitTemplate = rabbitTemplatePool.getTemplate(exchangeName, MQPublishProfileEnum.SIMPLE);
 
             String messageId = UUID.randomUUID().toString();
             MessageProperties messageProperties = new MessageProperties();
@@ -99,4 +153,20 @@ public class MessageProducerImpl implements MessageProducer {
         return true;
     }
 
+    @Override
+    public boolean sendAt(String exchangeName, String routing, String message, long dueTimeMillis) {
+        try {
+            MQMessage mqMessage = new MQMessage();
+            mqMessage.setMessageId(UUID.randomUUID().toString());
+            mqMessage.setMessage(message);
+            mqMessage.setCreatedOn(System.currentTimeMillis());
+            mqMessage.setExchangeName(exchangeName);
+            mqMessage.setRoutingKey(routing);
+            mqMessage.setExchangeType(MQExchangeTypeEnum.TOPIC.getType());
+            return delayedMessageDispatcher.schedule(mqMessage, dueTimeMillis);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
 }
@@ -0,0 +1,273 @@
+package cn.lzq.mq.service;
+
+import cn.lzq.mq.dao.TMessageDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 消息表消息的异步确认流水线
+ * 1. 补偿任务发送前登记，在途消息数受窗口限制，窗口满时阻塞发送线程
+ * 2. 收到ack的id先收集起来，达到batchSize或定时批量删除，不在确认线程上写数据库
+ * 3. nack或超时未确认的id批量恢复为待发送状态，由补偿任务重新发送
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class OutboxConfirmPipeline implements PublishConfirmListener, PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OutboxConfirmPipeline.class);
+
+    @Autowired
+    private TMessageDao tMessageDao;
+
+    @Autowired
+    private PublishConfirmRegistry publishConfirmRegistry;
+
+    /**
+     * 补偿任务最多同时等待确认的消息数
+     */
+    @Value("${mq.relay.confirm.window:1000}")
+    private int window;
+
+    /**
+     * 批量删除/恢复的条数
+     */
+    @Value("${mq.relay.confirm.batchSize:200}")
+    private int batchSize;
+
+    /**
+     * 超过该时间未确认视为失败
+     */
+    @Value("${mq.relay.confirm.timeoutMs:30000}")
+    private long timeoutMs;
+
+    private Semaphore windowPermits;
+
+    private final ConcurrentMap<Long, Long> inFlight = new ConcurrentHashMap<Long, Long>();
+
+    private final Set<Long> acked = ConcurrentHashMap.newKeySet();
+
+    private final Set<Long> retry = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService flushExecutor = Executors.newSingleThreadExecutor();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final AtomicLong ackCount = new AtomicLong();
+
+    private final AtomicLong nackCount = new AtomicLong();
+
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    private final AtomicLong deletedCount = new AtomicLong();
+
+    /**
+     * 驱动没有返回行数的批量删除涉及的id数
+     */
+    private final AtomicLong deletedNoInfoCount = new AtomicLong();
+
+    private final AtomicLong resetCount = new AtomicLong();
+
+    /**
+     * 确认耗时的指数移动平均（微秒），近似值
+     */
+    private volatile long avgConfirmMicros;
+
+    @PostConstruct
+    public void init() {
+        windowPermits = new Semaphore(window);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        flushExecutor.shutdown();
+        flush();
+    }
+
+    /**
+     * 占用一个窗口名额并登记，窗口满时阻塞，直到有确认返回
+     *
+     * @param id 消息表id
+     * @return correlationId
+     * @throws InterruptedException
+     */
+    public String acquireAndTrack(long id) throws InterruptedException {
+        windowPermits.acquire();
+        inFlight.put(id, System.nanoTime());
+        String correlationId = String.valueOf(id);
+        publishConfirmRegistry.register(correlationId, this);
+        return correlationId;
+    }
+
+    /**
+     * 发送失败时撤销登记，消息保持待发送状态
+     *
+     * @param id
+     */
+    public void untrack(long id) {
+        publishConfirmRegistry.unregister(String.valueOf(id));
+        if (inFlight.remove(id) != null) {
+            windowPermits.release();
+        }
+    }
+
+    /**
+     * 发送失败时撤销登记，并把消息恢复为待发送状态、清除认领租约，下次扫描时重新发送
+     *
+     * @param id
+     */
+    public void untrackAndRetry(long id) {
+        untrack(id);
+        retry.add(id);
+    }
+
+    /**
+     * 消息是否正在等待确认或等待删除，补偿任务需跳过这些消息
+     *
+     * @param id
+     * @return
+     */
+    public boolean isPending(long id) {
+        return inFlight.containsKey(id) || acked.contains(id);
+    }
+
+    public long getAvgConfirmMicros() {
+        return avgConfirmMicros;
+    }
+
+    @Override
+    public void onConfirm(String correlationId, boolean ack, String cause) {
+        Long id = Long.valueOf(correlationId);
+        Long sentAt = inFlight.remove(id);
+        if (sentAt != null) {
+            windowPermits.release();
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentAt);
+            avgConfirmMicros = avgConfirmMicros == 0 ? micros : (avgConfirmMicros * 7 + micros) / 8;
+        }
+        if (ack) {
+            ackCount.incrementAndGet();
+            acked.add(id);
+            if (acked.size() >= batchSize) {
+                scheduleFlush();
+            }
+        } else {
+            nackCount.incrementAndGet();
+            LOG.warn("message nacked, id: " + correlationId + ", cause: " + cause);
+            retry.add(id);
+        }
+    }
+
+    /**
+     * 定时批量删除已确认消息，处理超时
+     */
+    @Scheduled(fixedDelayString = "${mq.relay.confirm.flushIntervalMs:100}")
+    public void scheduledFlush() {
+        expireTimeouts();
+        flush();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            flushExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flushScheduled.set(false);
+                    flush();
+                }
+            });
+        }
+    }
+
+    private synchronized void flush() {
+        try {
+            List<Long> ids;
+            while (!(ids = drain(acked)).isEmpty()) {
+                int deleted = tMessageDao.deleteBatch(ids);
+                remove(acked, ids);
+                if (deleted >= 0) {
+                    deletedCount.addAndGet(deleted);
+                } else {
+                    deletedNoInfoCount.addAndGet(ids.size());
+                }
+            }
+            while (!(ids = drain(retry)).isEmpty()) {
+                int reset = tMessageDao.resetStatusBatch(ids);
+                remove(retry, ids);
+                if (reset >= 0) {
+                    resetCount.addAndGet(reset);
+                }
+            }
+        } catch (RuntimeException e) {
+            // 未处理的id保留在集合中，下次定时任务重试
+            LOG.error("flush confirmed messages error", e);
+        }
+    }
+
+    private List<Long> drain(Set<Long> ids) {
+        List<Long> batch = new ArrayList<Long>(batchSize);
+        Iterator<Long> iterator = ids.iterator();
+        while (iterator.hasNext() && batch.size() < batchSize) {
+            batch.add(iterator.next());
+        }
+        return batch;
+    }
+
+    private void remove(Set<Long> ids, List<Long> batch) {
+        for (Long id : batch) {
+            ids.remove(id);
+        }
+    }
+
+    private void expireTimeouts() {
+        long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (Map.Entry<Long, Long> entry : inFlight.entrySet()) {
+            if (entry.getValue() - deadline < 0 && inFlight.remove(entry.getKey(), entry.getValue())) {
+                publishConfirmRegistry.unregister(String.valueOf(entry.getKey()));
+                windowPermits.release();
+                timeoutCount.incrementAndGet();
+                retry.add(entry.getKey());
+            }
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+        metrics.add(new Metric<Integer>("mq.relay.confirm.inflight", inFlight.size()));
+        metrics.add(new Metric<Integer>("mq.relay.confirm.window.available", windowPermits.availablePermits()));
+        metrics.add(new Metric<Integer>("mq.relay.confirm.pendingDelete", acked.size()));
+        metrics.add(new Metric<Integer>("mq.relay.confirm.pendingRetry", retry.size()));
+        metrics.add(new Metric<Long>("mq.relay.confirm.ack", ackCount.get()));
+        metrics.add(new Metric<Long>("mq.relay.confirm.nack", nackCount.get()));
+        metrics.add(new Metric<Long>("mq.relay.confirm.timeout", timeoutCount.get()));
+        metrics.add(new Metric<Long>("mq.relay.confirm.deleted", deletedCount.get()));
+        metrics.add(new Metric<Long>("mq.relay.confirm.deleted.noInfo", deletedNoInfoCount.get()));
+        metrics.add(new Metric<Long>("mq.relay.confirm.reset", resetCount.get()));
+        metrics.add(new Metric<Long>("mq.relay.confirm.latency.avgMicros", avgConfirmMicros));
+        return metrics;
+    }
+}
@@ -0,0 +1,215 @@
+package cn.lzq.mq.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 补偿任务的自适应调度
+ * 1. 有消息时缩短轮询间隔，连续空轮询时按指数退避到最大间隔
+ * 2. broker确认耗时超过阈值时减小每页条数，恢复后逐步增大
+ * 3. 可通过wakeUp立即触发一次扫描；扫描始终只处理创建时间早于graceMs的消息，避免与事务提交后的直接发送重复
+ * 4. 直接发送失败的消息通过retry按id立即重发，不等待graceMs
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class OutboxRelayScheduler implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OutboxRelayScheduler.class);
+
+    @Autowired
+    private MQSendTaskService mqSendTaskService;
+
+    @Autowired
+    private OutboxConfirmPipeline outboxConfirmPipeline;
+
+    @Value("${mq.relay.enabled:true}")
+    private boolean enabled;
+
+    @Value("${mq.relay.minIntervalMs:10}")
+    private long minIntervalMs;
+
+    @Value("${mq.relay.maxIntervalMs:1000}")
+    private long maxIntervalMs;
+
+    @Value("${mq.relay.minPageSize:50}")
+    private int minPageSize;
+
+    @Value("${mq.relay.pageSize:1000}")
+    private int maxPageSize;
+
+    /**
+     * 平均确认耗时超过该值时减小每页条数
+     */
+    @Value("${mq.relay.confirmLatencyThresholdMs:200}")
+    private long confirmLatencyThresholdMs;
+
+    /**
+     * 定时扫描只处理创建时间早于该时长的消息，刚提交的消息由事务提交后的直接发送负责
+     */
+    @Value("${mq.relay.graceMs:10000}")
+    private long graceMs;
+
+    private final Semaphore wakeUpSignal = new Semaphore(0);
+
+    /**
+     * 等待按id重发的消息
+     */
+    private final Queue<Long> retryIds = new ConcurrentLinkedQueue<Long>();
+
+    private final AtomicLong scanCount = new AtomicLong();
+
+    private final AtomicLong wakeUpCount = new AtomicLong();
+
+    private volatile long intervalMs;
+
+    private volatile int pageSize;
+
+    private volatile boolean running;
+
+    private Thread thread;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        intervalMs = maxIntervalMs;
+        pageSize = maxPageSize;
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "mq-relay-scheduler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * 立即触发一次扫描，不等待当前轮询间隔
+     */
+    public void wakeUp() {
+        wakeUpCount.incrementAndGet();
+        if (wakeUpSignal.availablePermits() == 0) {
+            wakeUpSignal.release();
+        }
+    }
+
+    /**
+     * 按id重发事务提交后直接发送失败的消息，并立即触发一次扫描
+     * 只重发这些消息，其他刚提交的消息可能正由各自的事务直接发送
+     *
+     * @param ids 消息表id
+     * @return 补偿任务未运行时返回false，消息只能等待下次启动后的扫描
+     */
+    public boolean retry(List<Long> ids) {
+        if (!running) {
+            return false;
+        }
+        retryIds.addAll(ids);
+        wakeUp();
+        return true;
+    }
+
+    private void loop() {
+        while (running) {
+            try {
+                int sent = sendRetries();
+                sent += mqSendTaskService.scanTableAndSendMessage(pageSize, System.currentTimeMillis() - graceMs);
+                scanCount.incrementAndGet();
+                adjust(sent);
+                if (wakeUpSignal.tryAcquire(intervalMs, TimeUnit.MILLISECONDS)) {
+                    wakeUpSignal.drainPermits();
+                    intervalMs = minIntervalMs;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                LOG.error("relay scan error", e);
+                intervalMs = maxIntervalMs;
+                sleepQuietly(intervalMs);
+            }
+        }
+    }
+
+    private int sendRetries() throws InterruptedException {
+        List<Long> ids = new ArrayList<Long>();
+        Long id;
+        while ((id = retryIds.poll()) != null) {
+            ids.add(id);
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        try {
+            return mqSendTaskService.sendMessages(ids);
+        } catch (RuntimeException e) {
+            // 消息仍在消息表中，超过graceMs后由定时扫描发送
+            LOG.error("relay retry error, message ids: " + ids, e);
+            return 0;
+        }
+    }
+
+    private void adjust(int sent) {
+        if (sent > 0) {
+            intervalMs = Math.max(minIntervalMs, intervalMs / 2);
+        } else {
+            intervalMs = Math.min(maxIntervalMs, intervalMs * 2);
+        }
+
+        long latencyMs = TimeUnit.MICROSECONDS.toMillis(outboxConfirmPipeline.getAvgConfirmMicros());
+        if (latencyMs > confirmLatencyThresholdMs) {
+            pageSize = Math.max(minPageSize, pageSize / 2);
+        } else if (pageSize < maxPageSize) {
+            pageSize = Math.min(maxPageSize, pageSize + Math.max(1, pageSize / 4));
+        }
+    }
+
+    private void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+        metrics.add(new Metric<Long>("mq.relay.scheduler.intervalMs", intervalMs));
+        metrics.add(new Metric<Integer>("mq.relay.scheduler.pageSize", pageSize));
+        metrics.add(new Metric<Long>("mq.relay.scheduler.scans", scanCount.get()));
+        metrics.add(new Metric<Long>("mq.relay.scheduler.wakeUps", wakeUpCount.get()));
+        metrics.add(new Metric<Integer>("mq.relay.scheduler.pendingRetries", retryIds.size()));
+        return metrics;
+    }
+}
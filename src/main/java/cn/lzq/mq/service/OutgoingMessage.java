@@ -0,0 +1,36 @@
+package cn.lzq.mq.service;
+
+import org.springframework.amqp.core.Message;
+
+/**
+ * 待发送的消息及其交换机、路由键
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public class OutgoingMessage {
+
+    private final String exchangeName;
+
+    private final String routingKey;
+
+    private final Message message;
+
+    public OutgoingMessage(String exchangeName, String routingKey, Message message) {
+        this.exchangeName = exchangeName;
+        this.routingKey = routingKey;
+        this.message = message;
+    }
+
+    public String getExchangeName() {
+        return exchangeName;
+    }
+
+    public String getRoutingKey() {
+        return routingKey;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,39 @@
+package cn.lzq.mq.service;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * 消息体编解码，按消息头content-type选择
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public interface PayloadCodec {
+
+    /**
+     * 编码后消息的content-type
+     *
+     * @return
+     */
+    String getContentType();
+
+    /**
+     * 编码消息
+     *
+     * @param payload 业务对象；String按json文本处理
+     * @return
+     * @throws IOException
+     */
+    byte[] encode(Object payload) throws IOException;
+
+    /**
+     * 解码消息体
+     *
+     * @param body 非空消息体
+     * @param type 目标类型，String表示json文本
+     * @return
+     * @throws IOException
+     */
+    <T> T decode(byte[] body, Type type) throws IOException;
+}
@@ -0,0 +1,76 @@
+package cn.lzq.mq.service;
+
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 消息体编解码登记，按content-type选择PayloadCodec
+ * 发送方使用mq.producer.contentType配置的格式，消费方按每条消息的content-type解码，
+ * 没有content-type或未知的content-type按json解码
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class PayloadCodecRegistry {
+
+    @Autowired
+    private List<PayloadCodec> codecs;
+
+    @Value("${mq.producer.contentType:" + MessageProperties.CONTENT_TYPE_JSON + "}")
+    private String producerContentType;
+
+    private final Map<String, PayloadCodec> codecMap = new HashMap<String, PayloadCodec>();
+
+    private PayloadCodec defaultCodec;
+
+    private PayloadCodec producerCodec;
+
+    @PostConstruct
+    public void init() {
+        for (PayloadCodec codec : codecs) {
+            codecMap.put(codec.getContentType(), codec);
+        }
+        defaultCodec = codecMap.get(MessageProperties.CONTENT_TYPE_JSON);
+        producerCodec = codecMap.get(normalize(producerContentType));
+        if (defaultCodec == null || producerCodec == null) {
+            throw new IllegalArgumentException("no payload codec for content type: " + producerContentType
+                    + ", supported: " + codecMap.keySet());
+        }
+    }
+
+    /**
+     * 发送消息使用的编码
+     *
+     * @return
+     */
+    public PayloadCodec getProducerCodec() {
+        return producerCodec;
+    }
+
+    /**
+     * 按content-type取解码
+     *
+     * @param contentType 可以带参数，如application/json;charset=UTF-8
+     * @return 不会返回null
+     */
+    public PayloadCodec getCodec(String contentType) {
+        if (contentType == null) {
+            return defaultCodec;
+        }
+        PayloadCodec codec = codecMap.get(normalize(contentType));
+        return codec == null ? defaultCodec : codec;
+    }
+
+    private String normalize(String contentType) {
+        int index = contentType.indexOf(';');
+        return (index < 0 ? contentType : contentType.substring(0, index)).trim().toLowerCase();
+    }
+}
@@ -0,0 +1,19 @@
+package cn.lzq.mq.service;
+
+/**
+ * 发送确认监听，由PublishConfirmRegistry按correlationId分发
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public interface PublishConfirmListener {
+
+    /**
+     * broker确认结果
+     *
+     * @param correlationId 发送时的CorrelationData id
+     * @param ack           true:broker已接收
+     * @param cause         nack原因
+     */
+    void onConfirm(String correlationId, boolean ack, String cause);
+}
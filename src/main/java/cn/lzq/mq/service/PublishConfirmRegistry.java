@@ -0,0 +1,83 @@
+package cn.lzq.mq.service;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.support.CorrelationData;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 所有RabbitTemplate共用的确认回调，按correlationId把确认结果分发给发送时登记的监听
+ * RabbitTemplate只允许设置一个ConfirmCallback，因此不能在共享的模板上按消息设置回调
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class PublishConfirmRegistry implements RabbitTemplate.ConfirmCallback {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PublishConfirmRegistry.class);
+
+    private final ConcurrentMap<String, PublishConfirmListener> listeners = new ConcurrentHashMap<String, PublishConfirmListener>();
+
+    private final AtomicLong ackCount = new AtomicLong();
+
+    private final AtomicLong nackCount = new AtomicLong();
+
+    /**
+     * 登记确认监听，必须在发送之前调用
+     *
+     * @param correlationId
+     * @param listener
+     */
+    public void register(String correlationId, PublishConfirmListener listener) {
+        listeners.put(correlationId, listener);
+    }
+
+    /**
+     * 发送失败时撤销登记
+     *
+     * @param correlationId
+     */
+    public void unregister(String correlationId) {
+        listeners.remove(correlationId);
+    }
+
+    @Override
+    public void confirm(CorrelationData correlationData, boolean ack, String cause) {
+        if (ack) {
+            ackCount.incrementAndGet();
+        } else {
+            nackCount.incrementAndGet();
+        }
+        if (correlationData == null || StringUtils.isBlank(correlationData.getId())) {
+            return;
+        }
+        PublishConfirmListener listener = listeners.remove(correlationData.getId());
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.onConfirm(correlationData.getId(), ack, cause);
+        } catch (RuntimeException e) {
+            LOG.error("confirm listener error, correlationId: " + correlationData.getId(), e);
+        }
+    }
+
+    public int getPendingCount() {
+        return listeners.size();
+    }
+
+    public long getAckCount() {
+        return ackCount.get();
+    }
+
+    public long getNackCount() {
+        return nackCount.get();
+    }
+}
@@ -0,0 +1,154 @@
+package cn.lzq.mq.service;
+
+import cn.lzq.mq.common.MQPublishProfileEnum;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.ChannelCallback;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.retry.backoff.ExponentialBackOffPolicy;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 长期持有的RabbitTemplate，按 交换机 + 发送类型 复用，避免每条消息都创建RabbitAdmin/RabbitTemplate/转换器
+ * 所有模板共用一个确认回调PublishConfirmRegistry
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class RabbitTemplatePool implements PublicMetrics {
+
+    @Autowired
+    private ConnectionFactory connectionFactory;
+
+    @Autowired
+    private PublishConfirmRegistry publishConfirmRegistry;
+
+    @Autowired
+    private CodecMessageConverter messageConverter;
+
+    private final ConcurrentMap<String, RabbitTemplate> templates = new ConcurrentHashMap<String, RabbitTemplate>();
+
+    private final MessagePropertiesConverter messagePropertiesConverter = new DefaultMessagePropertiesConverter();
+
+    private final AtomicLong createdCount = new AtomicLong();
+
+    private final AtomicLong lookupCount = new AtomicLong();
+
+    /**
+     * 获取指定交换机和发送类型的模板，不存在则创建
+     *
+     * @param exchangeName
+     * @param profile
+     * @return
+     */
+    public RabbitTemplate getTemplate(String exchangeName, MQPublishProfileEnum profile) {
+        lookupCount.incrementAndGet();
+        String key = profile.name() + ":" + exchangeName;
+        RabbitTemplate template = templates.get(key);
+        if (template == null) {
+            RabbitTemplate created = createTemplate(exchangeName, profile);
+            template = templates.putIfAbsent(key, created);
+            if (template == null) {
+                template = created;
+                createdCount.incrementAndGet();
+            }
+        }
+        return template;
+    }
+
+    /**
+     * 在同一个channel上发送一批消息，全部发送后只等待一次broker确认
+     * 不经过PublishConfirmRegistry，调用方根据返回值统一处理整批消息
+     *
+     * @param messages
+     * @param timeoutMs 等待确认的超时时间
+     * @return true:整批消息都已被broker确认，false:有消息被nack或等待超时
+     */
+    public boolean sendAndWaitForConfirms(final List<OutgoingMessage> messages, final long timeoutMs) {
+        if (messages.isEmpty()) {
+            return true;
+        }
+        RabbitTemplate rabbitTemplate = getTemplate(messages.get(0).getExchangeName(), MQPublishProfileEnum.SIMPLE);
+        Boolean confirmed = rabbitTemplate.execute(new ChannelCallback<Boolean>() {
+            @Override
+            public Boolean doInRabbit(Channel channel) throws Exception {
+                for (OutgoingMessage outgoing : messages) {
+                    Message message = outgoing.getMessage();
+                    AMQP.BasicProperties properties = messagePropertiesConverter.fromMessageProperties(
+                            message.getMessageProperties(), "UTF-8");
+                    channel.basicPublish(outgoing.getExchangeName(), outgoing.getRoutingKey(), properties, message.getBody());
+                }
+                try {
+                    return channel.waitForConfirms(timeoutMs);
+                } catch (TimeoutException e) {
+                    return false;
+                }
+            }
+        });
+        return Boolean.TRUE.equals(confirmed);
+    }
+
+    public MessageConverter getMessageConverter() {
+        return messageConverter;
+    }
+
+    private RabbitTemplate createTemplate(String exchangeName, MQPublishProfileEnum profile) {
+        RabbitTemplate rabbitTemplate = new RabbitTemplate(connectionFactory);
+        rabbitTemplate.setExchange(exchangeName);
+        rabbitTemplate.setMandatory(true);
+        rabbitTemplate.setMessageConverter(messageConverter);
+        rabbitTemplate.setConfirmCallback(publishConfirmRegistry);
+
+        if (profile == MQPublishProfileEnum.RETRY) {
+            RetryTemplate retryTemplate = new RetryTemplate();
+            /**
+             * 指数退避策略，需设置参数sleeper、initialInterval、maxInterval和multiplier，
+             * initialInterval指定初始休眠时间，默认100毫秒，
+             * maxInterval指定最大休眠时间，默认30秒，
+             * multiplier指定乘数，即下一次休眠时间为当前休眠时间*multiplier
+             *
+             */
+            ExponentialBackOffPolicy backOffPolicy = new ExponentialBackOffPolicy();
+            backOffPolicy.setInitialInterval(500);
+            backOffPolicy.setMultiplier(10.0);
+            backOffPolicy.setMaxInterval(10000);
+
+            retryTemplate.setBackOffPolicy(backOffPolicy);
+            rabbitTemplate.setRetryTemplate(retryTemplate);
+        }
+        return rabbitTemplate;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        long created = createdCount.get();
+        long lookups = lookupCount.get();
+        List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+        metrics.add(new Metric<Integer>("mq.publisher.templates.active", templates.size()));
+        metrics.add(new Metric<Long>("mq.publisher.templates.created", created));
+        metrics.add(new Metric<Long>("mq.publisher.templates.lookups", lookups));
+        metrics.add(new Metric<Long>("mq.publisher.templates.reused", lookups - created));
+        metrics.add(new Metric<Integer>("mq.publisher.confirms.pending", publishConfirmRegistry.getPendingCount()));
+        metrics.add(new Metric<Long>("mq.publisher.confirms.ack", publishConfirmRegistry.getAckCount()));
+        metrics.add(new Metric<Long>("mq.publisher.confirms.nack", publishConfirmRegistry.getNackCount()));
+        return metrics;
+    }
+}
@@ -0,0 +1,54 @@
+package cn.lzq.mq.service;
+
+import cn.lzq.mq.dao.MQRedisDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 精确去重，每条消息处理前用SET NX EX写入一个有效期60秒的redis key
+ * redis访问失败时按需要处理，宁可重复消费也不丢消息
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+@ConditionalOnProperty(name = "mq.consumer.dedup.mode", havingValue = "exact", matchIfMissing = true)
+public class RedisMessageDeduplicator implements MessageDeduplicator {
+
+    /**
+     * 去重key的有效时间
+     */
+    static final int DEDUP_EXPIRE_SECONDS = 60;
+
+    @Autowired
+    private MQRedisDao redisDao;
+
+    @Override
+    public boolean tryAcquire(String key, String messageId) {
+        return redisDao.setnx(key, messageId, DEDUP_EXPIRE_SECONDS) != 0;
+    }
+
+    @Override
+    public List<Boolean> tryAcquire(List<String> keys, List<String> messageIds) {
+        List<Long> results = redisDao.setnx(keys, messageIds, DEDUP_EXPIRE_SECONDS);
+        List<Boolean> acquired = new ArrayList<Boolean>(results.size());
+        for (Long result : results) {
+            acquired.add(result != 0);
+        }
+        return acquired;
+    }
+
+    @Override
+    public void complete(List<String> keys) {
+        // key在处理前已写入，随有效期过期
+    }
+
+    @Override
+    public void release(String key) {
+        redisDao.del(key);
+    }
+}
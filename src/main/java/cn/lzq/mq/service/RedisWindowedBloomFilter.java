@@ -0,0 +1,105 @@
+package cn.lzq.mq.service;
+
+import cn.lzq.mq.dao.MQRedisDao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * redis位图实现的窗口布隆过滤器，多个实例共享
+ * 每个窗口一个位图key，大小固定为bits/8字节，两个窗口后过期
+ * 一批key的判断或写入用一个lua脚本完成，只访问一次redis
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+class RedisWindowedBloomFilter extends WindowedBloomFilter {
+
+    /**
+     * 使用相同的hash tag，当前窗口和上一个窗口的位图在集群中位于同一个slot
+     */
+    private static final String KEY_PREFIX = "{mq_dedup_bloom}_";
+
+    /**
+     * KEYS[1]:当前窗口 KEYS[2]:上一个窗口 ARGV[1]:每个key的位数 ARGV[2..]:所有key的位置，
+     * 返回每个key是否可能存在
+     */
+    private static final String CONTAINS_SCRIPT = "local k = tonumber(ARGV[1]) "
+            + "local n = (#ARGV - 1) / k "
+            + "local result = {} "
+            + "local function all(key, base) "
+            + "  for j = 1, k do "
+            + "    if redis.call('getbit', key, ARGV[base + j]) == 0 then return false end "
+            + "  end "
+            + "  return true "
+            + "end "
+            + "for i = 0, n - 1 do "
+            + "  local base = 1 + i * k "
+            + "  if all(KEYS[1], base) or all(KEYS[2], base) then result[i + 1] = 1 else result[i + 1] = 0 end "
+            + "end "
+            + "return result";
+
+    /**
+     * KEYS[1]:当前窗口 ARGV[1]:有效时间（秒） ARGV[2..]:所有key的位置
+     */
+    private static final String PUT_SCRIPT = "for i = 2, #ARGV do "
+            + "  redis.call('setbit', KEYS[1], ARGV[i], 1) "
+            + "end "
+            + "redis.call('expire', KEYS[1], ARGV[1]) "
+            + "return #ARGV - 1";
+
+    private final MQRedisDao redisDao;
+
+    private final String expireSeconds;
+
+    RedisWindowedBloomFilter(MQRedisDao redisDao, long expectedInsertions, double fpp, long windowMillis) {
+        super(expectedInsertions, fpp, windowMillis);
+        // redis位图最大2^32位
+        if (bits > (1L << 32)) {
+            throw new IllegalArgumentException("bloom filter too large for a redis bitmap: " + bits + " bits");
+        }
+        this.redisDao = redisDao;
+        this.expireSeconds = String.valueOf(windowMillis * 2 / 1000 + 1);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    List<Boolean> mightContain(List<String> keys) {
+        long window = currentWindow();
+        List<String> args = new ArrayList<String>(1 + keys.size() * hashes);
+        args.add(String.valueOf(hashes));
+        addOffsets(args, keys);
+        Object reply = redisDao.eval(CONTAINS_SCRIPT, Arrays.asList(KEY_PREFIX + window, KEY_PREFIX + (window - 1)), args);
+
+        List<Boolean> results = new ArrayList<Boolean>(keys.size());
+        if (reply instanceof List && ((List<Object>) reply).size() == keys.size()) {
+            for (Object hit : (List<Object>) reply) {
+                results.add(Long.valueOf(1L).equals(hit));
+            }
+        } else {
+            // redis访问失败时按未处理过对待，宁可重复消费也不丢消息
+            for (int i = 0; i < keys.size(); i++) {
+                results.add(Boolean.FALSE);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    void put(List<String> keys) {
+        List<String> args = new ArrayList<String>(1 + keys.size() * hashes);
+        args.add(expireSeconds);
+        addOffsets(args, keys);
+        redisDao.eval(PUT_SCRIPT, Collections.singletonList(KEY_PREFIX + currentWindow()), args);
+    }
+
+    private void addOffsets(List<String> args, List<String> keys) {
+        for (String key : keys) {
+            for (long offset : offsets(key)) {
+                args.add(String.valueOf(offset));
+            }
+        }
+    }
+}
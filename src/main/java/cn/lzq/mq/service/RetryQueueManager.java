@@ -0,0 +1,167 @@
+package cn.lzq.mq.service;
+
+import cn.lzq.mq.common.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 延迟重试
+ * 1. 每个业务队列按延迟时间声明重试队列 {queue}.retry.{delayMs}，队列设置消息有效期，
+ *    过期后通过默认交换机死信回原队列
+ * 2. 处理失败的消息发送到对应延迟的重试队列后确认原消息，等待期间不占用消费者和redis
+ * 3. 重试次数放在消息头x-retry-count中，超过最大次数后丢弃
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class RetryQueueManager implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetryQueueManager.class);
+
+    public static final String RETRY_COUNT_HEADER = "x-retry-count";
+
+    @Autowired
+    private RabbitTemplatePool rabbitTemplatePool;
+
+    /**
+     * 每次重试的延迟，重试次数超过配置个数时使用最后一个
+     */
+    @Value("${mq.consumer.retry.delaysMs:1000,5000,30000,120000}")
+    private long[] delaysMs;
+
+    /**
+     * 最多重试次数，超过后丢弃
+     */
+    @Value("${mq.consumer.retry.maxAttempts:4}")
+    private int maxAttempts;
+
+    /**
+     * 等待发送到重试队列的确认的超时时间
+     */
+    @Value("${mq.consumer.retry.confirmTimeoutMs:5000}")
+    private long confirmTimeoutMs;
+
+    private final AtomicLong scheduledCount = new AtomicLong();
+
+    private final AtomicLong exhaustedCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (delaysMs.length == 0) {
+            throw new IllegalArgumentException("mq.consumer.retry.delaysMs must not be empty");
+        }
+    }
+
+    /**
+     * 声明队列的所有重试队列
+     *
+     * @param rabbitAdmin
+     * @param queueName   业务队列
+     */
+    public void declareRetryQueues(RabbitAdmin rabbitAdmin, String queueName) {
+        for (long delay : delaysMs) {
+            Map<String, Object> arguments = new HashMap<String, Object>();
+            arguments.put("x-message-ttl", delay);
+            // 默认交换机按队列名路由，过期后只回到原队列，不会重新广播给原交换机的其他绑定
+            arguments.put("x-dead-letter-exchange", "");
+            arguments.put("x-dead-letter-routing-key", queueName);
+            rabbitAdmin.declareQueue(new Queue(retryQueueName(queueName, delay), true, false, false, arguments));
+        }
+    }
+
+    /**
+     * 安排失败消息的延迟重试
+     *
+     * @param message 处理失败的消息
+     * @return 对原消息的处理：ACCEPT 已发送到重试队列，确认原消息；REJECT 超过最大重试次数；
+     * RETRY 发送重试队列失败，原消息直接重新入队
+     */
+    public Action retry(Message message) {
+        return retry(Collections.singletonList(message)).get(0);
+    }
+
+    /**
+     * 批量安排失败消息的延迟重试，所有消息发送后只等待一次确认
+     *
+     * @param messages
+     * @return 与messages一一对应
+     */
+    public List<Action> retry(List<Message> messages) {
+        List<Action> actions = new ArrayList<Action>(messages.size());
+        List<OutgoingMessage> outgoingMessages = new ArrayList<OutgoingMessage>(messages.size());
+        for (Message message : messages) {
+            MessageProperties properties = message.getMessageProperties();
+            int attempts = retryCount(properties) + 1;
+            if (attempts > maxAttempts) {
+                exhaustedCount.incrementAndGet();
+                actions.add(Action.REJECT);
+                continue;
+            }
+            long delay = delaysMs[Math.min(attempts, delaysMs.length) - 1];
+            properties.setHeader(RETRY_COUNT_HEADER, attempts);
+            outgoingMessages.add(new OutgoingMessage("", retryQueueName(properties.getConsumerQueue(), delay), message));
+            actions.add(Action.ACCEPT);
+        }
+        if (outgoingMessages.isEmpty()) {
+            return actions;
+        }
+
+        boolean confirmed = false;
+        try {
+            confirmed = rabbitTemplatePool.sendAndWaitForConfirms(outgoingMessages, confirmTimeoutMs);
+        } catch (RuntimeException e) {
+            LOG.error("publish to retry queue error", e);
+        }
+        if (confirmed) {
+            scheduledCount.addAndGet(outgoingMessages.size());
+        } else {
+            // 重试队列不可用时退回原来的做法，重新入队
+            failedCount.addAndGet(outgoingMessages.size());
+            for (int i = 0; i < actions.size(); i++) {
+                if (actions.get(i) == Action.ACCEPT) {
+                    actions.set(i, Action.RETRY);
+                }
+            }
+        }
+        return actions;
+    }
+
+    private int retryCount(MessageProperties properties) {
+        Object count = properties.getHeaders().get(RETRY_COUNT_HEADER);
+        return count instanceof Number ? ((Number) count).intValue() : 0;
+    }
+
+    private String retryQueueName(String queueName, long delay) {
+        return queueName + ".retry." + delay;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+        metrics.add(new Metric<Long>("mq.consumer.retry.scheduled", scheduledCount.get()));
+        metrics.add(new Metric<Long>("mq.consumer.retry.exhausted", exhaustedCount.get()));
+        metrics.add(new Metric<Long>("mq.consumer.retry.failed", failedCount.get()));
+        return metrics;
+    }
+}
@@ -0,0 +1,98 @@
+package cn.lzq.mq.service;
+
+import com.alibaba.fastjson.JSON;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+/**
+ * Smile编解码（二进制json），字段名和短字符串在同一条消息内去重引用，数字按二进制写入
+ * 1. String消息按json文本流式转写为Smile，不经过对象树；不是合法json文本的（如普通文本）按Smile字符串写入
+ * 2. 目标类型为String时转写回json文本，业务处理不需要改动；消息体是Smile字符串时取回原文，与JsonPayloadCodec解码json字符串字面量一致
+ * 3. 目标类型为fastjson的JSONObject/JSONArray时转写为json后由fastjson解析，保持嵌套对象的类型
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class SmilePayloadCodec implements PayloadCodec {
+
+    public static final String CONTENT_TYPE = "application/x-jackson-smile";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private final SmileFactory smileFactory = new SmileFactory();
+
+    private final ObjectMapper smileMapper = new ObjectMapper(smileFactory);
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] encode(Object payload) throws IOException {
+        if (payload instanceof String) {
+            try {
+                return transcode(jsonFactory.createParser((String) payload), smileFactory, 256);
+            } catch (JsonProcessingException e) {
+                // 不是合法的json文本，按字符串写入，不能因为消息格式导致发送失败
+                return smileMapper.writeValueAsBytes(payload);
+            }
+        }
+        return smileMapper.writeValueAsBytes(payload);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T decode(byte[] body, Type type) throws IOException {
+        if (type == String.class) {
+            JsonParser parser = smileFactory.createParser(body);
+            if (parser.nextToken() == JsonToken.VALUE_STRING) {
+                try {
+                    return (T) parser.getText();
+                } finally {
+                    parser.close();
+                }
+            }
+            return (T) new String(transcode(parser, jsonFactory, body.length * 2), UTF_8);
+        }
+        if (type instanceof Class && JSON.class.isAssignableFrom((Class<?>) type)) {
+            return (T) JSON.parseObject(transcode(smileFactory.createParser(body), jsonFactory, body.length * 2), type);
+        }
+        return smileMapper.readValue(body, smileMapper.getTypeFactory().constructType(type));
+    }
+
+    /**
+     * 从parser的当前位置开始转写，parser还没读取时从第一个token开始
+     */
+    private byte[] transcode(JsonParser parser, JsonFactory target, int sizeHint) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(sizeHint);
+        try {
+            JsonGenerator generator = target.createGenerator(out);
+            if (!parser.hasCurrentToken()) {
+                parser.nextToken();
+            }
+            while (parser.hasCurrentToken()) {
+                generator.copyCurrentEvent(parser);
+                parser.nextToken();
+            }
+            generator.close();
+        } finally {
+            parser.close();
+        }
+        return out.toByteArray();
+    }
+}
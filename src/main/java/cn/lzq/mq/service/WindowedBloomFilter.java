@@ -0,0 +1,98 @@
+package cn.lzq.mq.service;
+
+import java.util.List;
+
+/**
+ * 按时间窗口轮换的布隆过滤器
+ * 每个窗口一个过滤器，判断时同时查当前窗口和上一个窗口，写入只写当前窗口，
+ * 所以一个key至少能被记住windowMillis，内存只与每个窗口的预期条数有关，不随消息总量增长
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+abstract class WindowedBloomFilter {
+
+    private static final double LN2 = Math.log(2);
+
+    /**
+     * 每个窗口的位数
+     */
+    protected final long bits;
+
+    /**
+     * 每个key的哈希函数个数
+     */
+    protected final int hashes;
+
+    protected final long windowMillis;
+
+    /**
+     * @param expectedInsertions 每个窗口预期写入的条数
+     * @param fpp                预期条数下的误判率
+     * @param windowMillis       窗口时长
+     */
+    WindowedBloomFilter(long expectedInsertions, double fpp, long windowMillis) {
+        this.bits = Math.max(64L, (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (LN2 * LN2)));
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedInsertions * LN2));
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * 是否可能已写入过，返回false时一定没有写入过
+     *
+     * @param keys
+     * @return 与keys一一对应
+     */
+    abstract List<Boolean> mightContain(List<String> keys);
+
+    abstract void put(List<String> keys);
+
+    long getBits() {
+        return bits;
+    }
+
+    int getHashes() {
+        return hashes;
+    }
+
+    long currentWindow() {
+        return System.currentTimeMillis() / windowMillis;
+    }
+
+    /**
+     * 双重哈希，由一个64位哈希的高低32位组合出hashes个位置
+     *
+     * @param key
+     * @return
+     */
+    long[] offsets(String key) {
+        long hash = hash64(key);
+        long hash1 = hash & 0xFFFFFFFFL;
+        long hash2 = hash >>> 32;
+        long[] offsets = new long[hashes];
+        for (int i = 0; i < hashes; i++) {
+            offsets[i] = ((hash1 + (i + 1) * hash2) & Long.MAX_VALUE) % bits;
+        }
+        return offsets;
+    }
+
+    /**
+     * FNV-1a后再做一次murmur3的fmix64，使高低位分布均匀
+     */
+    private static long hash64(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            hash ^= c & 0xFF;
+            hash *= 0x100000001b3L;
+            hash ^= c >>> 8;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
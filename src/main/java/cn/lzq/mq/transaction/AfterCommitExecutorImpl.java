@@ -1,20 +1,82 @@
 package cn.lzq.mq.transaction;
 
+import cn.lzq.mq.service.OutboxRelayScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.support.TransactionSynchronizationAdapter;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 执行顺序：execute，afterCommit（提交成功才会执行），afterCompletion
+ * 异步模式下，同一事务登记的任务打包成一个任务交给有界线程池按登记顺序执行，提交事务的线程不再等待broker
  * Created by lianzhiqiang on 17/9/14.
  */
 @Component
-public class AfterCommitExecutorImpl extends TransactionSynchronizationAdapter implements AfterCommitExecutor {
+public class AfterCommitExecutorImpl extends TransactionSynchronizationAdapter implements AfterCommitExecutor, PublicMetrics {
+    private static final Logger LOG = LoggerFactory.getLogger(AfterCommitExecutorImpl.class);
+
     private static final ThreadLocal<List<Runnable>> RUNNABLES = new ThreadLocal<List<Runnable>>();
 
+    @Autowired
+    private OutboxRelayScheduler outboxRelayScheduler;
+
+    @Value("${mq.afterCommit.async:false}")
+    private boolean async;
+
+    @Value("${mq.afterCommit.poolSize:4}")
+    private int poolSize;
+
+    @Value("${mq.afterCommit.queueCapacity:10000}")
+    private int queueCapacity;
+
+    @Value("${mq.afterCommit.rejectPolicy:CALLER_RUNS}")
+    private AfterCommitRejectPolicy rejectPolicy;
+
+    private ThreadPoolExecutor dispatcher;
+
+    private final AtomicLong dispatchedCount = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final AtomicLong handOffNanos = new AtomicLong();
+
+    private final AtomicLong maxHandOffNanos = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (async) {
+            dispatcher = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueCapacity), new CustomizableThreadFactory("mq-after-commit-"));
+            dispatcher.prestartAllCoreThreads();
+        }
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+            dispatcher.awaitTermination(30, TimeUnit.SECONDS);
+        }
+    }
+
     @Override
     public void execute(Runnable runnable) {
         if (!TransactionSynchronizationManager.isSynchronizationActive()) {
@@ -33,18 +95,144 @@ public class AfterCommitExecutorImpl extends TransactionSynchronizationAdapter i
     @Override
     public void afterCommit() {
         List<Runnable> threadRunnables = RUNNABLES.get();
-        for (int i = 0; i < threadRunnables.size(); i++) {
-            Runnable runnable = threadRunnables.get(i);
+        if (dispatcher == null) {
+            runAll(threadRunnables);
+            return;
+        }
+        dispatch(new TransactionTask(new ArrayList<Runnable>(threadRunnables)));
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+        RUNNABLES.remove();
+    }
+
+    private void dispatch(TransactionTask task) {
+        if (rejectPolicy == AfterCommitRejectPolicy.BLOCK) {
+            if (offerUntilShutdown(task)) {
+                dispatchedCount.incrementAndGet();
+            } else {
+                rejected(task);
+            }
+            return;
+        }
+        try {
+            dispatcher.execute(task);
+            dispatchedCount.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            rejected(task);
+        }
+    }
+
+    /**
+     * 等待队列空位，线程池关闭或线程被中断时放弃
+     * 直接放入队列会绕过线程池的关闭检查，放入后再检查一次，关闭后未被取走的任务撤回
+     *
+     * @param task
+     * @return 是否已交给线程池
+     */
+    private boolean offerUntilShutdown(TransactionTask task) {
+        BlockingQueue<Runnable> queue = dispatcher.getQueue();
+        try {
+            while (!dispatcher.isShutdown()) {
+                if (queue.offer(task, 100, TimeUnit.MILLISECONDS)) {
+                    return !(dispatcher.isShutdown() && queue.remove(task));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void rejected(TransactionTask task) {
+        rejectedCount.incrementAndGet();
+        if (rejectPolicy == AfterCommitRejectPolicy.RELAY) {
+            // 消息已在消息表中，按id交给补偿任务立即发送，不等待graceMs；补偿任务未运行时在当前线程发送
+            List<Long> ids = task.outboxMessageIds();
+            if (!ids.isEmpty() && outboxRelayScheduler.retry(ids)) {
+                task.skipOutboxPublishes();
+            }
+        }
+        task.run();
+    }
+
+    private static void runAll(List<Runnable> runnables) {
+        for (int i = 0; i < runnables.size(); i++) {
+            Runnable runnable = runnables.get(i);
             try {
                 runnable.run();
             } catch (RuntimeException e) {
-                e.printStackTrace();
+                LOG.error("after commit task error", e);
             }
         }
     }
 
+    /**
+     * 一个事务登记的全部任务
+     */
+    private class TransactionTask implements Runnable {
+
+        private List<Runnable> runnables;
+
+        private final long createdAt = System.nanoTime();
+
+        TransactionTask(List<Runnable> runnables) {
+            this.runnables = runnables;
+        }
+
+        @Override
+        public void run() {
+            long waited = System.nanoTime() - createdAt;
+            handOffNanos.addAndGet(waited);
+            long max;
+            while (waited > (max = maxHandOffNanos.get()) && !maxHandOffNanos.compareAndSet(max, waited)) {
+                // retry
+            }
+            runAll(runnables);
+        }
+
+        /**
+         * @return 发送消息表消息的任务中的消息id
+         */
+        List<Long> outboxMessageIds() {
+            List<Long> ids = new ArrayList<Long>();
+            for (Runnable runnable : runnables) {
+                if (runnable instanceof OutboxPublishTask) {
+                    ids.addAll(((OutboxPublishTask) runnable).getMessageIds());
+                }
+            }
+            return ids;
+        }
+
+        /**
+         * 去掉发送消息表消息的任务，由补偿任务发送
+         */
+        void skipOutboxPublishes() {
+            List<Runnable> remaining = new ArrayList<Runnable>(runnables.size());
+            for (Runnable runnable : runnables) {
+                if (!(runnable instanceof OutboxPublishTask)) {
+                    remaining.add(runnable);
+                }
+            }
+            runnables = remaining;
+        }
+    }
+
     @Override
-    public void afterCompletion(int status) {
-        RUNNABLES.remove();
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+        if (dispatcher == null) {
+            return metrics;
+        }
+        long dispatched = dispatchedCount.get();
+        metrics.add(new Metric<Integer>("mq.afterCommit.queue.depth", dispatcher.getQueue().size()));
+        metrics.add(new Metric<Integer>("mq.afterCommit.active", dispatcher.getActiveCount()));
+        metrics.add(new Metric<Long>("mq.afterCommit.dispatched", dispatched));
+        metrics.add(new Metric<Long>("mq.afterCommit.rejected", rejectedCount.get()));
+        metrics.add(new Metric<Long>("mq.afterCommit.handOff.avgMicros",
+                dispatched == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(handOffNanos.get() / dispatched)));
+        metrics.add(new Metric<Long>("mq.afterCommit.handOff.maxMicros", TimeUnit.NANOSECONDS.toMicros(maxHandOffNanos.get())));
+        return metrics;
     }
 }
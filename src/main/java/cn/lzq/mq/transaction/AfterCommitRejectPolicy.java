@@ -0,0 +1,13 @@
+package cn.lzq.mq.transaction;
+
+/**
+ * 异步执行队列已满时的处理方式
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public enum AfterCommitRejectPolicy {
+    CALLER_RUNS,  // 在提交事务的线程上直接执行
+    RELAY,        // 丢弃OutboxPublishTask，按消息id交给补偿任务立即发送（补偿任务未运行时直接执行）；其他任务在提交事务的线程上直接执行
+    BLOCK,        // 阻塞提交事务的线程直到队列有空位，线程池已关闭时在提交事务的线程上直接执行
+}
@@ -0,0 +1,18 @@
+package cn.lzq.mq.transaction;
+
+import java.util.List;
+
+/**
+ * 发送消息表中消息的任务，消息在事务中已写入消息表，任务丢失时由补偿任务重发
+ * 异步队列已满且拒绝策略为RELAY时，只有这类任务会被丢弃，按消息id交给补偿任务立即发送，其他任务在提交事务的线程上执行
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public interface OutboxPublishTask extends Runnable {
+
+    /**
+     * @return 任务要发送的消息在消息表中的id
+     */
+    List<Long> getMessageIds();
+}
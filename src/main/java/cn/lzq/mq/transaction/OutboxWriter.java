@@ -0,0 +1,22 @@
+package cn.lzq.mq.transaction;
+
+import cn.lzq.mq.common.MQMessage;
+
+import java.util.List;
+
+/**
+ * 消息表写入，事务中的消息先缓存，在事务提交前一次批量写入
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public interface OutboxWriter {
+
+    /**
+     * 分配消息id并写入消息表，没有事务时立即写入
+     *
+     * @param message
+     * @return 当前事务中已写入的全部消息（含本条），同一事务返回同一个列表；没有事务时只包含本条
+     */
+    List<MQMessage> write(MQMessage message);
+}
@@ -0,0 +1,84 @@
+package cn.lzq.mq.transaction;
+
+import cn.lzq.mq.common.MQMessage;
+import cn.lzq.mq.dao.TMessageDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 执行顺序：write（缓存），beforeCommit（批量写入，失败则事务回滚），afterCompletion
+ * 缓存超过batchSize时提前写入一批，避免大事务占用过多内存
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+@Component
+public class OutboxWriterImpl extends TransactionSynchronizationAdapter implements OutboxWriter {
+    private static final ThreadLocal<TransactionMessages> MESSAGES = new ThreadLocal<TransactionMessages>();
+
+    @Autowired
+    private TMessageDao tMessageDao;
+
+    @Value("${mq.outbox.batchSize:500}")
+    private int batchSize;
+
+    @Override
+    public List<MQMessage> write(MQMessage message) {
+        message.setId(tMessageDao.nextValue());
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            List<MQMessage> messages = Collections.singletonList(message);
+            tMessageDao.batchInsert(messages);
+            return messages;
+        }
+        TransactionMessages threadMessages = MESSAGES.get();
+        if (threadMessages == null) {
+            threadMessages = new TransactionMessages();
+            MESSAGES.set(threadMessages);
+            TransactionSynchronizationManager.registerSynchronization(this);
+        }
+        threadMessages.all.add(message);
+        threadMessages.unflushed.add(message);
+        if (threadMessages.unflushed.size() >= batchSize) {
+            flush(threadMessages.unflushed);
+        }
+        return threadMessages.all;
+    }
+
+    @Override
+    public void beforeCommit(boolean readOnly) {
+        TransactionMessages threadMessages = MESSAGES.get();
+        if (threadMessages != null) {
+            flush(threadMessages.unflushed);
+        }
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+        MESSAGES.remove();
+    }
+
+    private void flush(List<MQMessage> unflushed) {
+        if (unflushed.isEmpty()) {
+            return;
+        }
+        tMessageDao.batchInsert(unflushed);
+        unflushed.clear();
+    }
+
+    /**
+     * 一个事务中写入的消息
+     */
+    private static class TransactionMessages {
+
+        private final List<MQMessage> all = new ArrayList<MQMessage>();
+
+        private final List<MQMessage> unflushed = new ArrayList<MQMessage>();
+    }
+}
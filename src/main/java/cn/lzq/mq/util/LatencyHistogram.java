@@ -0,0 +1,176 @@
+package cn.lzq.mq.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对数分桶的耗时直方图，记录无锁，用于统计百分位
+ * 1. 0~63直接对应一个桶，之后每个2的幂区间分为32个桶，相对误差不超过1/32
+ * 2. 超过MAX_VALUE的值按MAX_VALUE记录
+ * 3. 计数只增不减，用两次snapshot相减得到一段时间内的分布
+ *
+ * @author lianzhiqiang
+ * Created in 2026/10/18
+ */
+public class LatencyHistogram {
+
+    /**
+     * 可区分的最大值，单位与record的值相同，按微秒约9.5小时
+     */
+    public static final long MAX_VALUE = (1L << 35) - 1;
+
+    private static final int LINEAR_BUCKETS = 64;
+
+    private static final int SUB_BUCKETS = 32;
+
+    private static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final LongAdder totalCount = new LongAdder();
+
+    private final LongAdder totalSum = new LongAdder();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一个值
+     *
+     * @param value 小于0时按0记录
+     */
+    public void record(long value) {
+        long v = value < 0 ? 0 : Math.min(value, MAX_VALUE);
+        counts.incrementAndGet(indexOf(v));
+        totalCount.increment();
+        totalSum.add(v);
+        long current = max.get();
+        while (v > current && !max.compareAndSet(current, v)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * 当前的累计分布，与之前的snapshot相减得到这段时间内的分布
+     *
+     * @return
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        // 各桶与总和不是同一时刻读取，按桶重新计算数量，总和只用于平均值
+        return new Snapshot(copy, count, totalSum.sum(), max.get());
+    }
+
+    /**
+     * 累计记录数
+     *
+     * @return
+     */
+    public long getTotalCount() {
+        return totalCount.sum();
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 5;
+        int top = (int) (value >>> shift);
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (top - SUB_BUCKETS);
+    }
+
+    /**
+     * 桶内的最大值
+     */
+    static long highestValueAt(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long top = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    public static class Snapshot {
+
+        private static final Snapshot EMPTY = new Snapshot(new long[BUCKET_COUNT], 0, 0, 0);
+
+        private final long[] counts;
+
+        private final long count;
+
+        private final long sum;
+
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public static Snapshot empty() {
+            return EMPTY;
+        }
+
+        /**
+         * 两次snapshot之间的分布，最大值取区间内最高的非空桶
+         *
+         * @param previous 较早的snapshot
+         * @return
+         */
+        public Snapshot minus(Snapshot previous) {
+            long[] delta = new long[counts.length];
+            long deltaCount = 0;
+            int highest = -1;
+            for (int i = 0; i < counts.length; i++) {
+                delta[i] = counts[i] - previous.counts[i];
+                deltaCount += delta[i];
+                if (delta[i] > 0) {
+                    highest = i;
+                }
+            }
+            long deltaMax = highest < 0 ? 0 : Math.min(max, highestValueAt(highest));
+            return new Snapshot(delta, deltaCount, sum - previous.sum, deltaMax);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * 百分位值，返回所在桶的最大值，比实际值偏大不超过1/32
+         *
+         * @param percentile 0~100
+         * @return 没有记录时返回0
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueAt(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}